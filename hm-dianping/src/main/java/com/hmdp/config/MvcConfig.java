@@ -1,13 +1,22 @@
 package com.hmdp.config;
 
+import com.hmdp.interceptor.AdminInterceptor;
 import com.hmdp.interceptor.LoginInterceptor;
+import com.hmdp.interceptor.RateLimitInterceptor;
 import com.hmdp.interceptor.RefreshTokenInterceptor;
+import com.hmdp.utils.RateLimiter;
+import com.hmdp.utils.RedisCircuitBreaker;
+import com.hmdp.utils.SoldOutRegistry;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
+import java.util.Set;
+
 /**
  * @author zhinushannan
  */
@@ -17,9 +26,36 @@ public class MvcConfig implements WebMvcConfigurer {
     @Autowired
     private StringRedisTemplate stringRedisTemplate;
 
+    @Autowired
+    private RedisCircuitBreaker redisCircuitBreaker;
+
+    /**
+     * Redis不可用时用于识别登录用户的本地token缓存的容量和保留时间(ms)
+     */
+    @Value("${hmdp.login.token-cache.capacity:10000}")
+    private int tokenCacheCapacity;
+
+    @Value("${hmdp.login.token-cache.ttl:1800000}")
+    private long tokenCacheTtl;
+
+    @Autowired
+    private RateLimiter rateLimiter;
+
+    @Autowired
+    private Environment environment;
+
+    @Autowired
+    private SoldOutRegistry soldOutRegistry;
+
+    /**
+     * 可以调用运维接口的管理员用户id
+     */
+    @Value("${hmdp.admin.user-ids:}")
+    private Set<Long> adminIds;
+
     @Override
     public void addInterceptors(InterceptorRegistry registry) {
-        registry.addInterceptor(new RefreshTokenInterceptor(stringRedisTemplate)).order(0);
+        registry.addInterceptor(new RefreshTokenInterceptor(stringRedisTemplate, redisCircuitBreaker, tokenCacheCapacity, tokenCacheTtl)).order(0);
 
         registry.addInterceptor(new LoginInterceptor())
                 .excludePathPatterns(
@@ -31,5 +67,11 @@ public class MvcConfig implements WebMvcConfigurer {
                         "/user/login"
                 )
                 .order(1);
+
+        // 在登录校验之后限流，按用户限流时可以取到当前用户
+        registry.addInterceptor(new RateLimitInterceptor(rateLimiter, environment, soldOutRegistry)).order(2);
+
+        // 运维接口只允许管理员调用
+        registry.addInterceptor(new AdminInterceptor(adminIds)).order(2);
     }
 }
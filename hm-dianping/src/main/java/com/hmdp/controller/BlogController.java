@@ -6,6 +6,7 @@ import com.hmdp.dto.Result;
 import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.Blog;
 import com.hmdp.service.IBlogService;
+import com.hmdp.utils.BloomFilterRegistry;
 import com.hmdp.utils.SystemConstants;
 import com.hmdp.utils.UserHolder;
 import org.springframework.web.bind.annotation.*;
@@ -13,6 +14,8 @@ import org.springframework.web.bind.annotation.*;
 import javax.annotation.Resource;
 import java.util.List;
 
+import static com.hmdp.utils.RedisConstants.CACHE_BLOG_KEY;
+
 /**
  * <p>
  * 前端控制器
@@ -28,6 +31,9 @@ public class BlogController {
     @Resource
     private IBlogService blogService;
 
+    @Resource
+    private BloomFilterRegistry bloomFilterRegistry;
+
     @PostMapping
     public Result saveBlog(@RequestBody Blog blog) {
         // 获取登录用户
@@ -35,6 +41,8 @@ public class BlogController {
         blog.setUserId(user.getId());
         // 保存探店博文
         blogService.save(blog);
+        // 写入布隆过滤器
+        bloomFilterRegistry.add(CACHE_BLOG_KEY, blog.getId());
         // 返回id
         return Result.ok(blog.getId());
     }
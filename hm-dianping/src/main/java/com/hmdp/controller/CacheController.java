@@ -0,0 +1,121 @@
+package com.hmdp.controller;
+
+import com.hmdp.dto.Result;
+import com.hmdp.interceptor.AdminOnly;
+import com.hmdp.utils.CacheMetrics;
+import com.hmdp.utils.CacheRebuildScheduler;
+import com.hmdp.utils.CacheWarmer;
+import com.hmdp.utils.HotKeyDetector;
+import com.hmdp.utils.RedisCircuitBreaker;
+import com.hmdp.utils.RedisScriptRegistry;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.Resource;
+import java.io.IOException;
+
+/**
+ * 缓存运维接口，只允许管理员调用
+ *
+ * @author zhinushannan
+ */
+@AdminOnly
+@RestController
+@RequestMapping("/cache")
+public class CacheController {
+
+    @Resource
+    private CacheMetrics cacheMetrics;
+
+    @Resource
+    private HotKeyDetector hotKeyDetector;
+
+    @Resource
+    private CacheWarmer cacheWarmer;
+
+    @Resource
+    private CacheRebuildScheduler cacheRebuildScheduler;
+
+    @Resource
+    private RedisCircuitBreaker redisCircuitBreaker;
+
+    @Resource
+    private RedisScriptRegistry redisScriptRegistry;
+
+    /**
+     * 查询各缓存前缀的命中率、重建次数及重建耗时分布
+     */
+    @GetMapping("/metrics")
+    public Result queryMetrics() {
+        return Result.ok(cacheMetrics.snapshot());
+    }
+
+    /**
+     * 清空缓存指标，用于调整TTL等参数后重新观察
+     */
+    @DeleteMapping("/metrics")
+    public Result resetMetrics() {
+        cacheMetrics.reset();
+        return Result.ok();
+    }
+
+    /**
+     * 查询本节点缓存重建线程池的状态
+     */
+    @GetMapping("/rebuilds")
+    public Result queryRebuilds() {
+        return Result.ok(cacheRebuildScheduler.stats());
+    }
+
+    /**
+     * 查询本节点Redis熔断器的状态，以及失败、拒绝和打开的次数
+     */
+    @GetMapping("/breaker")
+    public Result queryBreaker() {
+        return Result.ok(redisCircuitBreaker.stats());
+    }
+
+    /**
+     * 查询各Lua脚本的SHA、版本、执行次数及NOSCRIPT次数
+     */
+    @GetMapping("/scripts")
+    public Result queryScripts() {
+        return Result.ok(redisScriptRegistry.stats());
+    }
+
+    /**
+     * 热更新本节点的Lua脚本，优先读取 hmdp.redis.scripts.reload-dir 中的同名文件
+     */
+    @PostMapping("/scripts/{name}/reload")
+    public Result reloadScript(@PathVariable("name") String name) throws IOException {
+        return Result.ok(redisScriptRegistry.reload(name));
+    }
+
+    /**
+     * 查询本节点当前的热点key及其滑动窗口内的访问次数
+     */
+    @GetMapping("/hot-keys")
+    public Result queryHotKeys() {
+        return Result.ok(hotKeyDetector.hotKeys());
+    }
+
+    /**
+     * 在后台预热全部缓存，用于Redis被清空后恢复
+     */
+    @PostMapping("/warm-up")
+    public Result warmUp() {
+        return cacheWarmer.warmUpAsync() ? Result.ok() : Result.fail("正在预热！");
+    }
+
+    /**
+     * 查询各预热任务的进度
+     */
+    @GetMapping("/warm-up")
+    public Result queryWarmUpProgress() {
+        return Result.ok(cacheWarmer.progress());
+    }
+}
@@ -6,11 +6,14 @@ import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.hmdp.service.IShopService;
+import com.hmdp.utils.BloomFilterRegistry;
 import com.hmdp.utils.SystemConstants;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
 
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_KEY;
+
 /**
  * <p>
  * 前端控制器
@@ -26,6 +29,9 @@ public class ShopController {
     @Resource
     public IShopService shopService;
 
+    @Resource
+    private BloomFilterRegistry bloomFilterRegistry;
+
     /**
      * 根据id查询商铺信息
      * @param id 商铺id
@@ -45,6 +51,8 @@ public class ShopController {
     public Result saveShop(@RequestBody Shop shop) {
         // 写入数据库
         shopService.save(shop);
+        // 写入布隆过滤器
+        bloomFilterRegistry.add(CACHE_SHOP_KEY, shop.getId());
         // 返回店铺id
         return Result.ok(shop.getId());
     }
@@ -71,12 +79,7 @@ public class ShopController {
             @RequestParam("typeId") Integer typeId,
             @RequestParam(value = "current", defaultValue = "1") Integer current
     ) {
-        // 根据类型分页查询
-        Page<Shop> page = shopService.query()
-                .eq("type_id", typeId)
-                .page(new Page<>(current, SystemConstants.DEFAULT_PAGE_SIZE));
-        // 返回数据
-        return Result.ok(page.getRecords());
+        return shopService.queryByType(typeId, current);
     }
 
     /**
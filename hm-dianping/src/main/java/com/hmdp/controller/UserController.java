@@ -5,6 +5,7 @@ import com.hmdp.dto.LoginFormDTO;
 import com.hmdp.dto.Result;
 import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.UserInfo;
+import com.hmdp.interceptor.RateLimit;
 import com.hmdp.service.IUserInfoService;
 import com.hmdp.service.IUserService;
 import com.hmdp.utils.UserHolder;
@@ -37,6 +38,8 @@ public class UserController {
      * 发送手机验证码
      */
     @PostMapping("code")
+    @RateLimit(scope = RateLimit.Scope.IP,
+            rate = "${hmdp.rate-limit.user-code.rate:0.1}", capacity = "${hmdp.rate-limit.user-code.capacity:5}")
     public Result sendCode(@RequestParam("phone") String phone) {
         return userService.sendCode(phone);
     }
@@ -4,10 +4,13 @@ package com.hmdp.controller;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Voucher;
 import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.BloomFilterRegistry;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
 
+import static com.hmdp.utils.RedisConstants.CACHE_VOUCHER_KEY;
+
 /**
  * <p>
  *  前端控制器
@@ -23,6 +26,9 @@ public class VoucherController {
     @Resource
     private IVoucherService voucherService;
 
+    @Resource
+    private BloomFilterRegistry bloomFilterRegistry;
+
     /**
      * 新增普通券
      * @param voucher 优惠券信息
@@ -31,6 +37,7 @@ public class VoucherController {
     @PostMapping
     public Result addVoucher(@RequestBody Voucher voucher) {
         voucherService.save(voucher);
+        bloomFilterRegistry.add(CACHE_VOUCHER_KEY, voucher.getId());
         return Result.ok(voucher.getId());
     }
 
@@ -42,6 +49,7 @@ public class VoucherController {
     @PostMapping("seckill")
     public Result addSeckillVoucher(@RequestBody Voucher voucher) {
         voucherService.addSeckillVoucher(voucher);
+        bloomFilterRegistry.add(CACHE_VOUCHER_KEY, voucher.getId());
         return Result.ok(voucher.getId());
     }
 
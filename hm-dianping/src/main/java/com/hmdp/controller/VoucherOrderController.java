@@ -2,8 +2,11 @@ package com.hmdp.controller;
 
 
 import com.hmdp.dto.Result;
+import com.hmdp.interceptor.AdminOnly;
+import com.hmdp.interceptor.RateLimit;
 import com.hmdp.service.IVoucherOrderService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -25,7 +28,22 @@ public class VoucherOrderController {
     private IVoucherOrderService voucherOrderService;
 
     @PostMapping("seckill/{id}")
+    @RateLimit(scope = RateLimit.Scope.USER, soldOutVoucher = "id",
+            rate = "${hmdp.rate-limit.seckill.user-rate:2}", capacity = "${hmdp.rate-limit.seckill.user-capacity:5}")
+    @RateLimit(scope = RateLimit.Scope.PATH, soldOutVoucher = "id",
+            rate = "${hmdp.rate-limit.seckill.voucher-rate:2000}", capacity = "${hmdp.rate-limit.seckill.voucher-capacity:2000}")
     public Result seckillVoucher(@PathVariable("id") Long voucherId) {
         return voucherOrderService.seckillVoucher(voucherId);
     }
+
+    @GetMapping("seckill/{id}/queue")
+    public Result queryWaitingRoom(@PathVariable("id") Long voucherId) {
+        return voucherOrderService.queryWaitingRoom(voucherId);
+    }
+
+    @AdminOnly
+    @PostMapping("seckill/{id}/bitmap")
+    public Result migrateBuyersToBitmap(@PathVariable("id") Long voucherId) {
+        return Result.ok(voucherOrderService.migrateBuyersToBitmap(voucherId));
+    }
 }
@@ -0,0 +1,75 @@
+package com.hmdp.entity;
+
+import com.baomidou.mybatisplus.annotation.IdType;
+import com.baomidou.mybatisplus.annotation.TableId;
+import com.baomidou.mybatisplus.annotation.TableName;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.experimental.Accessors;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+
+/**
+ * <p>
+ * 缓存失效发件箱，与业务数据在同一个事务中写入
+ * </p>
+ *
+ * @author zhinushannan
+ */
+@Data
+@EqualsAndHashCode(callSuper = false)
+@Accessors(chain = true)
+@TableName("tb_cache_outbox")
+public class CacheOutbox implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * 等待第一次删除
+     */
+    public static final int STATUS_PENDING = 0;
+
+    /**
+     * 等待延迟的第二次删除
+     */
+    public static final int STATUS_DELAYED = 1;
+
+    /**
+     * 主键
+     */
+    @TableId(value = "id", type = IdType.AUTO)
+    private Long id;
+
+    /**
+     * 需要删除的缓存key
+     */
+    private String cacheKey;
+
+    /**
+     * 状态，0：等待第一次删除，1：等待延迟的第二次删除
+     */
+    private Integer status;
+
+    /**
+     * 失败重试次数
+     */
+    private Integer retries;
+
+    /**
+     * 下次处理时间
+     */
+    private LocalDateTime nextTime;
+
+    /**
+     * 创建时间
+     */
+    private LocalDateTime createTime;
+
+    /**
+     * 更新时间
+     */
+    private LocalDateTime updateTime;
+
+
+}
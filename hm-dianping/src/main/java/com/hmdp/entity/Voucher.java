@@ -90,6 +90,18 @@ public class Voucher implements Serializable {
     @TableField(exist = false)
     private LocalDateTime endTime;
 
+    /**
+     * 秒杀库存的分片数，为空时使用默认值
+     */
+    @TableField(exist = false)
+    private Integer stockShards;
+
+    /**
+     * 一人一单的判断方式：set 或 bitmap，为空时使用默认值
+     */
+    @TableField(exist = false)
+    private String buyerDedup;
+
     /**
      * 创建时间
      */
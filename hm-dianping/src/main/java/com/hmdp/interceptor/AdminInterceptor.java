@@ -0,0 +1,53 @@
+package com.hmdp.interceptor;
+
+import com.hmdp.dto.UserDTO;
+import com.hmdp.utils.UserHolder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.Set;
+
+/**
+ * 校验 {@link AdminOnly} 接口的调用者是否为管理员，并记录由谁调用
+ *
+ * @author zhinushannan
+ */
+@Slf4j
+public class AdminInterceptor implements HandlerInterceptor {
+
+    /**
+     * 管理员的用户id
+     */
+    private final Set<Long> adminIds;
+
+    public AdminInterceptor(Set<Long> adminIds) {
+        this.adminIds = adminIds;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        // 1. 只处理运维接口
+        if (!(handler instanceof HandlerMethod) || !isAdminOnly((HandlerMethod) handler)) {
+            return true;
+        }
+        // 2. 判断是否为管理员
+        UserDTO user = UserHolder.getUser();
+        if (null == user || !adminIds.contains(user.getId())) {
+            log.warn("拒绝非管理员调用运维接口：{} {}，用户：{}", request.getMethod(), request.getRequestURI(),
+                    null == user ? null : user.getId());
+            response.setStatus(403);
+            return false;
+        }
+        // 3. 记录调用者并放行
+        log.info("管理员{}调用运维接口：{} {}", user.getId(), request.getMethod(), request.getRequestURI());
+        return true;
+    }
+
+    private static boolean isAdminOnly(HandlerMethod handler) {
+        return handler.hasMethodAnnotation(AdminOnly.class) || handler.getBeanType().isAnnotationPresent(AdminOnly.class);
+    }
+
+}
@@ -0,0 +1,18 @@
+package com.hmdp.interceptor;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 仅管理员可以调用的运维接口，由 {@link AdminInterceptor} 校验；标注在类上时该类的全部接口都只允许管理员调用
+ *
+ * @author zhinushannan
+ */
+@Documented
+@Target({ElementType.TYPE, ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface AdminOnly {
+}
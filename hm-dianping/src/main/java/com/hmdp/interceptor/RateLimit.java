@@ -0,0 +1,67 @@
+package com.hmdp.interceptor;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Repeatable;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 接口限流，基于Redis的令牌桶，由 {@link RateLimitInterceptor} 在进入接口前检查
+ * <p>
+ * 同一个接口可以声明多个限流，例如按用户和按接口路径分别限流，全部通过才放行；
+ * rate 和 capacity 支持 ${...} 占位符，可以在配置文件中按接口调整
+ *
+ * @author zhinushannan
+ */
+@Documented
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Repeatable(RateLimits.class)
+public @interface RateLimit {
+
+    /**
+     * 限流的名称，为空时使用 类名.方法名
+     */
+    String name() default "";
+
+    /**
+     * 令牌桶的划分方式
+     */
+    Scope scope() default Scope.USER;
+
+    /**
+     * 每秒补充的令牌数，可以是小数
+     */
+    String rate();
+
+    /**
+     * 令牌桶的容量，即允许的突发请求数
+     */
+    String capacity();
+
+    /**
+     * 保存秒杀券id的路径变量名，该秒杀券在本节点已标记售罄时跳过这个令牌桶，由接口直接拒绝，不再访问Redis；为空时总是限流
+     */
+    String soldOutVoucher() default "";
+
+    enum Scope {
+        /**
+         * 所有请求共用一个令牌桶
+         */
+        GLOBAL,
+        /**
+         * 每个客户端IP一个令牌桶
+         */
+        IP,
+        /**
+         * 每个登录用户一个令牌桶，未登录时按IP
+         */
+        USER,
+        /**
+         * 每个接口路径模板及路径变量一个令牌桶，路径中带有id时即为每个id一个，如每张秒杀券
+         */
+        PATH
+    }
+}
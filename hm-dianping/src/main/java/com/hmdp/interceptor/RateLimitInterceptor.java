@@ -0,0 +1,171 @@
+package com.hmdp.interceptor;
+
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.json.JSONUtil;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
+import com.hmdp.utils.RateLimiter;
+import com.hmdp.utils.SoldOutRegistry;
+import com.hmdp.utils.UserHolder;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.core.env.Environment;
+import org.springframework.http.MediaType;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Map;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * 按接口上的 {@link RateLimit} 限流，任意一个令牌桶没有令牌时返回429
+ * <p>
+ * 按路径限流时使用匹配到的路径模板和解析后的路径变量，同一接口的不同写法（如结尾的/、;参数、重复的/）共用一个令牌桶
+ *
+ * @author zhinushannan
+ */
+public class RateLimitInterceptor implements HandlerInterceptor {
+
+    private final RateLimiter rateLimiter;
+
+    private final Environment environment;
+
+    private final SoldOutRegistry soldOutRegistry;
+
+    /**
+     * 接口方法 -> 解析了占位符的限流规则
+     */
+    private final Map<Method, List<Rule>> rules = new ConcurrentHashMap<>();
+
+    public RateLimitInterceptor(RateLimiter rateLimiter, Environment environment, SoldOutRegistry soldOutRegistry) {
+        this.rateLimiter = rateLimiter;
+        this.environment = environment;
+        this.soldOutRegistry = soldOutRegistry;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        // 1. 只处理带有限流注解的接口
+        if (!(handler instanceof HandlerMethod)) {
+            return true;
+        }
+        List<Rule> list = rules.computeIfAbsent(((HandlerMethod) handler).getMethod(), this::parse);
+        // 2. 依次检查每个令牌桶，秒杀券已售罄时跳过，由接口在本节点直接拒绝
+        for (Rule rule : list) {
+            if (isSoldOut(rule, request)) {
+                continue;
+            }
+            long wait = rateLimiter.tryAcquire(rule.name + ":" + scopeOf(rule.scope, request), rule.rate, rule.capacity);
+            if (wait > 0) {
+                // 3. 没有令牌，返回429并告知多久后重试
+                response.setStatus(429);
+                response.setHeader("Retry-After", String.valueOf((wait + 999) / 1000));
+                response.setContentType(MediaType.APPLICATION_JSON_VALUE + ";charset=" + StandardCharsets.UTF_8.name());
+                response.getWriter().write(JSONUtil.toJsonStr(Result.fail("请求过于频繁，请稍后再试")));
+                return false;
+            }
+        }
+        // 4. 放行
+        return true;
+    }
+
+    private String scopeOf(RateLimit.Scope scope, HttpServletRequest request) {
+        switch (scope) {
+            case GLOBAL:
+                return "all";
+            case PATH:
+                return pathOf(request);
+            case USER:
+                UserDTO user = UserHolder.getUser();
+                if (null != user) {
+                    return "user:" + user.getId();
+                }
+                return "ip:" + rateLimiter.clientIp(request);
+            default:
+                return "ip:" + rateLimiter.clientIp(request);
+        }
+    }
+
+    /**
+     * 路径模板及解析后的路径变量，如 /voucher-order/seckill/{id}?id=7；数字变量按数值归一化，07与7共用一个令牌桶
+     */
+    private static String pathOf(HttpServletRequest request) {
+        Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+        if (null == pattern) {
+            return request.getRequestURI();
+        }
+        // 结尾带/的请求匹配到的模板也带/，去掉后与不带/的请求共用
+        StringBuilder path = new StringBuilder(StrUtil.removeSuffix(pattern.toString(), "/"));
+        char separator = '?';
+        for (Map.Entry<String, String> entry : new TreeMap<>(pathVariables(request)).entrySet()) {
+            path.append(separator).append(entry.getKey()).append('=').append(normalize(entry.getValue()));
+            separator = '&';
+        }
+        return path.toString();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, String> pathVariables(HttpServletRequest request) {
+        Object variables = request.getAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE);
+        return null == variables ? Collections.emptyMap() : (Map<String, String>) variables;
+    }
+
+    private static String normalize(String value) {
+        try {
+            return String.valueOf(Long.parseLong(value));
+        } catch (NumberFormatException e) {
+            return value;
+        }
+    }
+
+    /**
+     * 规则指定的秒杀券是否已在本节点标记售罄，只读取本地的售罄标记
+     */
+    private boolean isSoldOut(Rule rule, HttpServletRequest request) {
+        if (StrUtil.isEmpty(rule.soldOutVoucher)) {
+            return false;
+        }
+        String voucherId = pathVariables(request).get(rule.soldOutVoucher);
+        try {
+            return null != voucherId && soldOutRegistry.isSoldOut(Long.valueOf(voucherId));
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private List<Rule> parse(Method method) {
+        Set<RateLimit> limits = AnnotatedElementUtils.findMergedRepeatableAnnotations(method, RateLimit.class);
+        return limits.stream().map(limit -> new Rule(
+                limit.name().isEmpty() ? method.getDeclaringClass().getSimpleName() + "." + method.getName() : limit.name(),
+                limit.scope(),
+                Double.parseDouble(environment.resolveRequiredPlaceholders(limit.rate())),
+                Integer.parseInt(environment.resolveRequiredPlaceholders(limit.capacity())),
+                limit.soldOutVoucher()
+        )).collect(Collectors.toList());
+    }
+
+    private static class Rule {
+        private final String name;
+        private final RateLimit.Scope scope;
+        private final double rate;
+        private final int capacity;
+        private final String soldOutVoucher;
+
+        Rule(String name, RateLimit.Scope scope, double rate, int capacity, String soldOutVoucher) {
+            this.name = name;
+            this.scope = scope;
+            this.rate = rate;
+            this.capacity = capacity;
+            this.soldOutVoucher = soldOutVoucher;
+        }
+    }
+}
@@ -1,9 +1,13 @@
 package com.hmdp.interceptor;
 
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
 import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.StrUtil;
 import com.hmdp.dto.UserDTO;
+import com.hmdp.utils.RedisCircuitBreaker;
 import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.RedisUnavailableException;
 import com.hmdp.utils.UserHolder;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.web.servlet.HandlerInterceptor;
@@ -20,8 +24,22 @@ public class RefreshTokenInterceptor implements HandlerInterceptor {
 
     private final StringRedisTemplate stringRedisTemplate;
 
-    public RefreshTokenInterceptor(StringRedisTemplate stringRedisTemplate) {
+    private final RedisCircuitBreaker redisCircuitBreaker;
+
+    /**
+     * 最近验证过的登录用户，独立于共享的本地缓存，只在Redis不可用时使用
+     */
+    private final LRUCache<String, UserDTO> tokenCache;
+
+    /**
+     * @param tokenCacheCapacity 最近验证过的登录用户的最大数量
+     * @param tokenCacheTtl      最近验证过的登录用户的保留时间(ms)，即Redis不可用时仍能识别的时长
+     */
+    public RefreshTokenInterceptor(StringRedisTemplate stringRedisTemplate, RedisCircuitBreaker redisCircuitBreaker,
+                                   int tokenCacheCapacity, long tokenCacheTtl) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.redisCircuitBreaker = redisCircuitBreaker;
+        this.tokenCache = CacheUtil.newLRUCache(tokenCacheCapacity, tokenCacheTtl);
     }
 
     @Override
@@ -31,10 +49,18 @@ public class RefreshTokenInterceptor implements HandlerInterceptor {
         if (StrUtil.isBlank(token)) {
             return true;
         }
-        // 2. 获取redis中的用户
+        // 2. 获取redis中的用户，redis不可用时使用本地缓存中最近验证过的用户，都没有则按未登录放行
         String key = RedisConstants.LOGIN_USER_KEY + token;
-        Map<Object, Object> userMap = stringRedisTemplate.opsForHash()
-                .entries(key);
+        Map<Object, Object> userMap;
+        try {
+            userMap = redisCircuitBreaker.execute(() -> stringRedisTemplate.opsForHash().entries(key));
+        } catch (RedisUnavailableException e) {
+            UserDTO cached = tokenCache.get(key, false);
+            if (null != cached) {
+                UserHolder.saveUser(cached);
+            }
+            return true;
+        }
         // 3. 判断用户是否存在
         if (userMap.isEmpty()) {
             return true;
@@ -43,8 +69,12 @@ public class RefreshTokenInterceptor implements HandlerInterceptor {
         UserDTO userDTO = BeanUtil.fillBeanWithMap(userMap, new UserDTO(), false);
         // 6. 将用户保存到ThreadLocal中
         UserHolder.saveUser(userDTO);
-        // 7. token续期
-        stringRedisTemplate.expire(key, RedisConstants.LOGIN_USER_TTL, TimeUnit.MINUTES);
+        tokenCache.put(key, userDTO);
+        // 7. token续期，redis不可用时跳过
+        try {
+            redisCircuitBreaker.execute(() -> stringRedisTemplate.expire(key, RedisConstants.LOGIN_USER_TTL, TimeUnit.MINUTES));
+        } catch (RedisUnavailableException ignored) {
+        }
         // 8. 放行
         return true;
     }
@@ -0,0 +1,15 @@
+package com.hmdp.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.hmdp.entity.CacheOutbox;
+
+/**
+ * <p>
+ * 缓存失效发件箱 Mapper 接口
+ * </p>
+ *
+ * @author zhinushannan
+ */
+public interface CacheOutboxMapper extends BaseMapper<CacheOutbox> {
+
+}
@@ -0,0 +1,26 @@
+package com.hmdp.service;
+
+import com.baomidou.mybatisplus.extension.service.IService;
+import com.hmdp.entity.CacheOutbox;
+
+/**
+ * <p>
+ * 缓存失效发件箱 服务类
+ * </p>
+ *
+ * @author zhinushannan
+ */
+public interface ICacheOutboxService extends IService<CacheOutbox> {
+
+    /**
+     * 在当前事务中登记需要删除的缓存，事务提交后由后台投递
+     *
+     * @param cacheKey 缓存的键
+     */
+    void enqueue(String cacheKey);
+
+    /**
+     * 投递到期的缓存删除
+     */
+    void relay();
+}
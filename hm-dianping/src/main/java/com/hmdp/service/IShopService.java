@@ -29,4 +29,13 @@ public interface IShopService extends IService<Shop> {
      * @return 返回统一返回值
      */
     Result update(Shop shop);
+
+    /**
+     * 根据商铺类型分页查询商铺
+     *
+     * @param typeId  商铺类型
+     * @param current 页码
+     * @return 返回统一返回值
+     */
+    Result queryByType(Integer typeId, Integer current);
 }
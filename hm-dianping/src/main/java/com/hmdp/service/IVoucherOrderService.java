@@ -4,6 +4,8 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.VoucherOrder;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.List;
+
 /**
  * <p>
  *  服务类
@@ -22,9 +24,24 @@ public interface IVoucherOrderService extends IService<VoucherOrder> {
     Result seckillVoucher(Long voucherId);
 
     /**
-     * 事务管理的、创建优惠券订单的方法
-     * @param voucherOrder 优惠券对象
+     * 查询当前用户在秒杀等候室中的状态
+     * @param voucherId 优惠券id
+     * @return 是否持有令牌、排队的位置及排队的人数
+     */
+    Result queryWaitingRoom(Long voucherId);
+
+    /**
+     * 事务管理的、批量创建优惠券订单的方法：同一批订单按优惠券合并扣减库存，并通过一条语句插入
+     * @param voucherOrders 订单，可以包含重复的订单
+     * @return 因数据库库存不足而没有创建的订单，由调用方转入死信队列
+     */
+    List<VoucherOrder> createVoucherOrders(List<VoucherOrder> voucherOrders);
+
+    /**
+     * 把秒杀券的已下单用户从集合迁移到位图
+     * @param voucherId 优惠券id
+     * @return 复制的用户数
      */
-    void createVoucherOrder(VoucherOrder voucherOrder);
+    long migrateBuyersToBitmap(Long voucherId);
 
 }
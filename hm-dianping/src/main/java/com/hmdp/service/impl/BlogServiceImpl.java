@@ -1,21 +1,35 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.BooleanUtil;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.Blog;
 import com.hmdp.entity.User;
 import com.hmdp.mapper.BlogMapper;
 import com.hmdp.service.IBlogService;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.BloomFilterRegistry;
+import com.hmdp.utils.CacheUtils;
+import com.hmdp.utils.CacheWarmer;
 import com.hmdp.utils.SystemConstants;
 import com.hmdp.utils.UserHolder;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.*;
 
 /**
  * <p>
@@ -34,6 +48,38 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
     @Autowired
     private StringRedisTemplate stringRedisTemplate;
 
+    @Autowired
+    private BloomFilterRegistry bloomFilterRegistry;
+
+    @Autowired
+    private CacheUtils cacheUtils;
+
+    @Autowired
+    private CacheWarmer cacheWarmer;
+
+    /**
+     * 预热点赞数最多的笔记数量，0表示不预热
+     */
+    @Value("${hmdp.cache.warm-up.top-blogs:1000}")
+    private long warmUpTopBlogs;
+
+    @PostConstruct
+    private void init() {
+        // 注册笔记id的布隆过滤器，应用启动完成后从数据库重建
+        bloomFilterRegistry.register(CACHE_BLOG_KEY, (lastId, size) -> query()
+                .select("id").gt("id", lastId).orderByAsc("id").last("limit " + size)
+                .list().stream().map(Blog::getId).collect(Collectors.toList()));
+        // 注册热门笔记缓存预热，按点赞数、id降序分页
+        if (warmUpTopBlogs > 0) {
+            cacheWarmer.register(CACHE_BLOG_KEY, (Blog last, Integer size) -> query()
+                            .and(null != last, w -> w.lt("liked", last.getLiked())
+                                    .or(o -> o.eq("liked", last.getLiked()).lt("id", last.getId())))
+                            .orderByDesc("liked", "id").last("limit " + size).list(),
+                    blogs -> cacheUtils.setBatch(CACHE_BLOG_KEY, blogs, Blog::getId, CACHE_BLOG_TTL, TimeUnit.MINUTES),
+                    warmUpTopBlogs);
+        }
+    }
+
     @Override
     public Result queryHotBlog(Integer current) {
         // 根据用户查询
@@ -42,17 +88,19 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
                 .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
         // 获取当前页数据
         List<Blog> records = page.getRecords();
-        // 查询用户
-        records.forEach(this::queryBlogUser);
+        // 批量查询用户和点赞状态
+        queryBlogUsers(records);
         return Result.ok(records);
     }
 
     @Override
     public Result queryBlogId(String id) {
-        Blog blog = getById(id);
-        if (null == blog) {
+        // 查询缓存，缓存中的对象被多个请求共享，复制后再填充用户信息
+        Blog cached = cacheUtils.queryWithPassThrough(CACHE_BLOG_KEY, id, Blog.class, this::getById, CACHE_BLOG_TTL, TimeUnit.MINUTES);
+        if (null == cached) {
             return Result.fail("笔记不存在！");
         }
+        Blog blog = BeanUtil.copyProperties(cached, Blog.class);
         queryBlogUser(blog);
         return Result.ok(blog);
     }
@@ -71,6 +119,7 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
             // 3.2 保存用户到Redis的set集合
             if (isSuccess) {
                 stringRedisTemplate.opsForSet().add(key, userId.toString());
+                cacheUtils.delete(CACHE_BLOG_KEY + id);
             }
         } else {
             // 4. 如果已经点赞，取消点赞
@@ -79,11 +128,50 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
             // 4.2 把用户从redis的set集合中移除
             if (isSuccess) {
                 stringRedisTemplate.opsForSet().remove(key, userId.toString());
+                cacheUtils.delete(CACHE_BLOG_KEY + id);
             }
         }
         return Result.ok();
     }
 
+    /**
+     * 批量查询blog有关的用户，作者信息走一次批量缓存查询，点赞状态走一次pipeline
+     */
+    private void queryBlogUsers(List<Blog> blogs) {
+        if (blogs.isEmpty()) {
+            return;
+        }
+        // 1. 批量查询作者
+        List<Long> userIds = blogs.stream().map(Blog::getUserId).collect(Collectors.toList());
+        Map<Long, UserDTO> users = cacheUtils.queryBatchWithPassThrough(CACHE_USER_KEY, userIds, UserDTO.class,
+                ids -> userService.listByIds(ids).stream()
+                        .map(user -> BeanUtil.copyProperties(user, UserDTO.class))
+                        .collect(Collectors.toList()),
+                UserDTO::getId, CACHE_USER_TTL, TimeUnit.MINUTES);
+        // 2. 批量判断当前登录用户有没有点赞
+        UserDTO me = UserHolder.getUser();
+        List<Object> liked = null;
+        if (null != me) {
+            byte[] member = me.getId().toString().getBytes(StandardCharsets.UTF_8);
+            liked = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (Blog blog : blogs) {
+                    connection.sIsMember(("blog:liked" + blog.getId()).getBytes(StandardCharsets.UTF_8), member);
+                }
+                return null;
+            });
+        }
+        // 3. 填充到blog中
+        for (int i = 0; i < blogs.size(); i++) {
+            Blog blog = blogs.get(i);
+            UserDTO user = users.get(blog.getUserId());
+            if (null != user) {
+                blog.setName(user.getNickName());
+                blog.setIcon(user.getIcon());
+            }
+            blog.setIsLike(null != liked && BooleanUtil.isTrue((Boolean) liked.get(i)));
+        }
+    }
+
     /**
      * 查询blog有关的用户
      */
@@ -0,0 +1,167 @@
+package com.hmdp.service.impl;
+
+import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.entity.CacheOutbox;
+import com.hmdp.mapper.CacheOutboxMapper;
+import com.hmdp.service.ICacheOutboxService;
+import com.hmdp.utils.CacheUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PreDestroy;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+import static com.hmdp.entity.CacheOutbox.STATUS_DELAYED;
+import static com.hmdp.entity.CacheOutbox.STATUS_PENDING;
+
+/**
+ * <p>
+ * 缓存失效发件箱 服务实现类
+ * </p>
+ * 业务数据更新时在同一个事务中写入发件箱，事务提交后立即投递，定时任务兜底：
+ * 批量删除缓存并通知各节点清除本地缓存，延迟一段时间后再删除一次，覆盖提交前后并发读回填的旧数据；
+ * 删除失败时按指数退避重试，直到成功为止
+ *
+ * @author zhinushannan
+ */
+@Slf4j
+@Service
+public class CacheOutboxServiceImpl extends ServiceImpl<CacheOutboxMapper, CacheOutbox> implements ICacheOutboxService {
+
+    /**
+     * 每批投递的最大数量
+     */
+    @Value("${hmdp.cache.outbox.batch-size:200}")
+    private int batchSize;
+
+    /**
+     * 第二次删除相对第一次删除的延迟（毫秒）
+     */
+    @Value("${hmdp.cache.outbox.second-delete-delay:1000}")
+    private long secondDeleteDelay;
+
+    /**
+     * 失败重试的最大退避时间（毫秒）
+     */
+    @Value("${hmdp.cache.outbox.max-backoff:60000}")
+    private long maxBackoff;
+
+    @Autowired
+    private CacheUtils cacheUtils;
+
+    private final ScheduledExecutorService relayExecutor = Executors.newSingleThreadScheduledExecutor();
+
+    /**
+     * 是否已经提交了投递任务，用于合并同时到达的投递请求
+     */
+    private final AtomicBoolean relayRequested = new AtomicBoolean(false);
+
+    @Override
+    public void enqueue(String cacheKey) {
+        // 1. 在当前事务中写入发件箱
+        save(new CacheOutbox()
+                .setCacheKey(cacheKey)
+                .setStatus(STATUS_PENDING)
+                .setRetries(0)
+                .setNextTime(LocalDateTime.now()));
+        // 2. 事务提交后立即投递，回滚时发件箱中的记录一同回滚
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    relayAsync(0L);
+                }
+            });
+        } else {
+            relayAsync(0L);
+        }
+    }
+
+    @Override
+    @Scheduled(fixedDelayString = "${hmdp.cache.outbox.interval:1000}")
+    public synchronized void relay() {
+        while (true) {
+            // 1. 查询到期的记录
+            LocalDateTime now = LocalDateTime.now();
+            List<CacheOutbox> due = query().le("next_time", now).orderByAsc("id").last("limit " + batchSize).list();
+            if (due.isEmpty()) {
+                return;
+            }
+            List<Long> ids = due.stream().map(CacheOutbox::getId).collect(Collectors.toList());
+            // 2. 批量删除缓存，并通知各节点清除本地缓存
+            Set<String> keys = due.stream().map(CacheOutbox::getCacheKey).collect(Collectors.toSet());
+            try {
+                cacheUtils.delete(keys);
+            } catch (Exception e) {
+                // 3. 删除失败，按指数退避稍后重试
+                int retries = due.stream().mapToInt(CacheOutbox::getRetries).max().orElse(0) + 1;
+                log.error("缓存删除失败，第{}次重试：{}", retries, keys, e);
+                update().setSql("retries = retries + 1")
+                        .set("next_time", now.plus(backoff(retries), ChronoUnit.MILLIS))
+                        .in("id", ids).update();
+                return;
+            }
+            // 4. 第一次删除成功的，延迟后再删除一次
+            List<Long> pending = due.stream().filter(o -> o.getStatus() == STATUS_PENDING)
+                    .map(CacheOutbox::getId).collect(Collectors.toList());
+            if (!pending.isEmpty()) {
+                update().set("status", STATUS_DELAYED).set("retries", 0)
+                        .set("next_time", now.plus(secondDeleteDelay, ChronoUnit.MILLIS))
+                        .in("id", pending).update();
+                relayAsync(secondDeleteDelay);
+            }
+            // 5. 第二次删除成功的，从发件箱中移除
+            List<Long> delayed = due.stream().filter(o -> o.getStatus() == STATUS_DELAYED)
+                    .map(CacheOutbox::getId).collect(Collectors.toList());
+            if (!delayed.isEmpty()) {
+                removeByIds(delayed);
+            }
+            if (due.size() < batchSize) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 提交一次后台投递，已有待执行的投递时合并
+     *
+     * @param delay 延迟（毫秒）
+     */
+    private void relayAsync(long delay) {
+        if (delay <= 0 && !relayRequested.compareAndSet(false, true)) {
+            return;
+        }
+        relayExecutor.schedule(() -> {
+            if (delay <= 0) {
+                relayRequested.set(false);
+            }
+            try {
+                relay();
+            } catch (Exception e) {
+                log.error("缓存失效投递异常", e);
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private long backoff(int retries) {
+        return Math.min(maxBackoff, 100L << Math.min(retries, 20));
+    }
+
+    @PreDestroy
+    private void destroy() {
+        relayExecutor.shutdownNow();
+    }
+}
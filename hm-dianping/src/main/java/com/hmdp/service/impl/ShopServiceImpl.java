@@ -1,21 +1,26 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.json.JSONUtil;
+import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.hmdp.mapper.ShopMapper;
+import com.hmdp.service.ICacheOutboxService;
 import com.hmdp.service.IShopService;
+import com.hmdp.utils.BloomFilterRegistry;
 import com.hmdp.utils.CacheUtils;
-import com.hmdp.utils.RedisData;
+import com.hmdp.utils.CacheWarmer;
+import com.hmdp.utils.SystemConstants;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.PostConstruct;
-import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import static com.hmdp.utils.RedisConstants.*;
 
@@ -30,12 +35,39 @@ import static com.hmdp.utils.RedisConstants.*;
 @Service
 public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IShopService {
 
-    @Autowired
-    private StringRedisTemplate stringRedisTemplate;
+    /**
+     * 列表页需要的店铺属性
+     */
+    private static final String[] LIST_FIELDS = {
+            "id", "name", "typeId", "images", "area", "address", "avgPrice", "sold", "comments", "score"
+    };
 
     @Autowired
     private CacheUtils cacheUtils;
 
+    @Autowired
+    private BloomFilterRegistry bloomFilterRegistry;
+
+    @Autowired
+    private CacheWarmer cacheWarmer;
+
+    @Autowired
+    private ICacheOutboxService cacheOutboxService;
+
+    @PostConstruct
+    private void init() {
+        // 注册店铺id的布隆过滤器，应用启动完成后从数据库重建
+        bloomFilterRegistry.register(CACHE_SHOP_KEY, (lastId, size) -> query()
+                .select("id").gt("id", lastId).orderByAsc("id").last("limit " + size)
+                .list().stream().map(Shop::getId).collect(Collectors.toList()));
+        // 注册店铺缓存预热，写入方式需与 queryById 使用的缓存策略一致
+        cacheWarmer.register(CACHE_SHOP_KEY, (Shop last, Integer size) -> query()
+                        .gt("id", null == last ? 0L : last.getId()).orderByAsc("id").last("limit " + size).list(),
+                shops -> cacheUtils.setBatch(CACHE_SHOP_KEY, shops, Shop::getId, CACHE_SHOP_TTL, TimeUnit.MINUTES));
+        // 使用逻辑过期时改为
+        // shops -> cacheUtils.setBatchWithLogicalExpire(CACHE_SHOP_KEY, shops, Shop::getId, CACHE_SHOP_TTL, TimeUnit.MINUTES)
+    }
+
     @Override
     public Result queryById(Long id) {
         // 解决缓存穿透
@@ -43,6 +75,10 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
 
         // 逻辑过期解决缓存击穿
         // Shop shop = cacheUtils.queryWithLogicalExpire(CACHE_SHOP_KEY, LOCK_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+
+        // 逻辑过期 + 概率提前刷新解决缓存击穿
+        // Shop shop = cacheUtils.queryWithEarlyRefresh(CACHE_SHOP_KEY, LOCK_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+
         // 互斥锁解决缓存击穿
         Shop shop = cacheUtils.queryWithMutex(CACHE_SHOP_KEY, LOCK_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
 
@@ -50,21 +86,6 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         return null != shop ? Result.ok(shop) : Result.fail("店铺不存在！");
     }
 
-    /**
-     * 当使用逻辑过期时打开
-     */
-//    @PostConstruct
-    private void saveShopToRedis() {
-        // 1. 查询店铺数据
-        Shop shop = getById(1L);
-        // 2. 封装逻辑过期时间
-        RedisData redisData = new RedisData();
-        redisData.setData(shop);
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(10L));
-        // 3. 写入Redis
-        stringRedisTemplate.opsForValue().set(CACHE_SHOP_KEY + 1L, JSONUtil.toJsonStr(redisData));
-    }
-
     @Override
     @Transactional
     public Result update(Shop shop) {
@@ -74,8 +95,24 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         }
         // 1. 更新数据库
         updateById(shop);
-        // 2. 删除缓存
-        stringRedisTemplate.delete(CACHE_SHOP_KEY + id);
+        // 2. 在同一个事务中登记删除缓存，事务提交后删除并通知各节点清除本地缓存
+        cacheOutboxService.enqueue(CACHE_SHOP_KEY + id);
+        cacheOutboxService.enqueue(CACHE_SHOP_HASH_KEY + id);
         return Result.ok();
     }
+
+    @Override
+    public Result queryByType(Integer typeId, Integer current) {
+        // 1. 根据类型分页查询店铺id
+        Page<Shop> page = query()
+                .select("id")
+                .eq("type_id", typeId)
+                .page(new Page<>(current, SystemConstants.DEFAULT_PAGE_SIZE));
+        List<Long> ids = page.getRecords().stream().map(Shop::getId).collect(Collectors.toList());
+        // 2. 从以Hash形式保存的缓存中只读取列表需要的属性
+        Map<Long, Shop> shops = cacheUtils.queryBatchHashFields(CACHE_SHOP_HASH_KEY, ids, Shop.class,
+                this::listByIds, Shop::getId, CACHE_SHOP_TTL, TimeUnit.MINUTES, LIST_FIELDS);
+        // 3. 返回数据
+        return Result.ok(new ArrayList<>(shops.values()));
+    }
 }
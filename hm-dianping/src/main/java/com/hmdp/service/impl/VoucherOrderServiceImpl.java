@@ -1,32 +1,81 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.TimedCache;
 import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.map.MapUtil;
+import cn.hutool.core.net.NetUtil;
+import cn.hutool.core.util.StrUtil;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.dto.Result;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.Voucher;
 import com.hmdp.entity.VoucherOrder;
 import com.hmdp.mapper.VoucherOrderMapper;
 import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.service.IVoucherService;
 import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.utils.BloomFilterRegistry;
+import com.hmdp.utils.CacheWarmer;
 import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.RedisScriptRegistry;
+import com.hmdp.utils.SeckillBuyers;
+import com.hmdp.utils.SeckillMeta;
+import com.hmdp.utils.SeckillWaitingRoom;
+import com.hmdp.utils.SeckillStockShards;
+import com.hmdp.utils.SoldOutRegistry;
 import com.hmdp.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
 import org.redisson.api.RLock;
 import org.redisson.api.RedissonClient;
-import org.springframework.aop.framework.AopContext;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.io.ClassPathResource;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.RedisSystemException;
+import org.springframework.data.redis.connection.RedisStreamCommands;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
 import org.springframework.data.redis.connection.stream.*;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
 import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.CACHE_VOUCHER_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_DEDUP_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_SHARDS_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
 
 /**
  * <p>
@@ -43,176 +92,1147 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     @Autowired
     private ISeckillVoucherService seckillVoucherService;
 
+    @Autowired
+    private IVoucherService voucherService;
+
     @Autowired
     private RedisIdWorker redisIdWorker;
 
     @Autowired
     private StringRedisTemplate stringRedisTemplate;
 
+    @Autowired
+    private BloomFilterRegistry bloomFilterRegistry;
+
+    @Autowired
+    private CacheWarmer cacheWarmer;
+
+    @Autowired
+    private SoldOutRegistry soldOutRegistry;
+
     @Autowired
     private RedissonClient redissonClient;
 
-    private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
+    /**
+     * 是否预热未结束的秒杀券的库存和已下单用户
+     */
+    @Value("${hmdp.cache.warm-up.seckill:true}")
+    private boolean warmUpSeckill;
+
+    /**
+     * 每次从消息队列读取的最大订单数
+     */
+    @Value("${hmdp.seckill.consumer.batch-size:100}")
+    private int batchSize;
 
-    static {
-        SECKILL_SCRIPT = new DefaultRedisScript<>();
-        SECKILL_SCRIPT.setLocation(new ClassPathResource("lua/seckill.lua"));
-        SECKILL_SCRIPT.setResultType(Long.class);
-    }
+    /**
+     * 消息队列为空时阻塞等待的时间(ms)，阻塞读取同样受Redis命令超时时间的限制，需小于 spring.redis.timeout
+     */
+    @Value("${hmdp.seckill.consumer.block:300}")
+    private long blockMillis;
+
+    /**
+     * resources/lua 下的脚本名称，通过 RedisScriptRegistry 以EVALSHA执行
+     */
+    private static final String SECKILL_SCRIPT = "seckill";
+    private static final String SECKILL_SHARD_SCRIPT = "seckill_shard";
+    private static final String SECKILL_TAKE_SCRIPT = "seckill_take";
+    private static final String STOCK_LEASE_SCRIPT = "stock_lease";
+    private static final String SECKILL_LEASED_SCRIPT = "seckill_leased";
+
+    @Autowired
+    private RedisScriptRegistry scriptRegistry;
+
+    @Autowired
+    private SeckillWaitingRoom waitingRoom;
+
+    /**
+     * 是否从Redis租借库存到本节点，在本地扣减库存
+     * <p>
+     * 租借只减少对热点库存key的访问，每次下单仍需执行一次脚本判断一人一单并发送订单消息，Redis的命令数不会成倍减少
+     */
+    @Value("${hmdp.seckill.lease.enabled:false}")
+    private boolean leaseEnabled;
+
+    /**
+     * 每次租借的库存数量
+     */
+    @Value("${hmdp.seckill.lease.chunk:50}")
+    private int leaseChunk;
+
+    /**
+     * 租借的库存超过该时间(ms)没有卖出时归还，让其它节点继续售卖
+     */
+    @Value("${hmdp.seckill.lease.idle-return:10000}")
+    private long leaseIdleReturn;
+
+    /**
+     * 优惠券id -> 本节点租借的库存
+     */
+    private final Map<Long, StockLease> leases = new ConcurrentHashMap<>();
+
+    /**
+     * 秒杀券布局的本地缓存时间(ms)
+     */
+    private static final long LAYOUT_TTL = 60000L;
+
+    /**
+     * 预热时每次读取并写入的已下单用户数量
+     */
+    private static final int WARM_UP_BUYER_PAGE = 1000;
+
+    /**
+     * 优惠券id -> 库存分片数及一人一单的方式，创建秒杀券后基本不变，短暂缓存以兼顾创建前的查询、迁移和Redis被清空的情况
+     */
+    private final TimedCache<Long, SeckillLayout> layouts = CacheUtil.newTimedCache(LAYOUT_TTL);
+
+    /**
+     * 延迟完成已下单用户迁移的线程
+     */
+    private final ScheduledExecutorService migrationExecutor = Executors.newSingleThreadScheduledExecutor();
+
+    /**
+     * 订单消息队列及消费者组，分区时每个分区的队列为 stream.orders:{分区}
+     */
+    private static final String ORDER_QUEUE = "stream.orders";
+    private static final String ORDER_GROUP = "g1";
+
+    /**
+     * 订单消息队列的分区数，为1时只使用 stream.orders
+     * <p>
+     * 分区分散的是消息队列和消费者的负载；未分片秒杀券的脚本在一次调用中同时访问库存、已下单用户等key和分区队列，
+     * 这些key不在同一个slot，因此只支持单机或哨兵部署；Redis Cluster下需要为秒杀券启用库存分片，
+     * 分片脚本只访问同一slot的key，订单消息由Java写入分区队列
+     */
+    @Value("${hmdp.seckill.stream.partitions:1}")
+    private int partitions;
+
+    /**
+     * 分区依据：user 按用户id分区，同一用户的订单总在同一分区中，由该分区唯一的消费者按顺序处理；voucher 按优惠券id分区
+     */
+    @Value("${hmdp.seckill.stream.partition-by:user}")
+    private String partitionBy;
+
+    /**
+     * 多次投递仍处理失败的订单转入的死信队列
+     */
+    private static final String ORDER_DEAD_QUEUE = "stream.orders.dead";
+
+    /**
+     * 分区锁的前缀，持有锁的消费者独占该分区
+     */
+    private static final String ORDER_PARTITION_LOCK = "lock:";
+
+    /**
+     * 本节点的消费者数量，分区时不超过分区数
+     */
+    @Value("${hmdp.seckill.consumer.count:2}")
+    private int consumerCount;
 
     /**
-     * 创建线程池
+     * 本节点的标识，用于生成消费者名称，为空时使用主机名和端口；节点重启后保持不变才能接着处理自己的pendingList
      */
-    private static final ExecutorService SECKILL_ORDER_EXECUTOR = Executors.newSingleThreadExecutor();
+    @Value("${hmdp.seckill.consumer.instance-id:}")
+    private String instanceId;
+
+    @Value("${server.port:8080}")
+    private int serverPort;
+
+    /**
+     * 消息在其它消费者的pendingList中空闲超过该时间(ms)后被认领
+     */
+    @Value("${hmdp.seckill.consumer.claim-idle:60000}")
+    private long claimIdle;
+
+    /**
+     * 投递超过该次数仍未处理成功的消息转入死信队列
+     */
+    @Value("${hmdp.seckill.consumer.max-deliveries:5}")
+    private long maxDeliveries;
+
+    /**
+     * 没有待处理消息且空闲超过该时间(ms)的其它消费者从消费者组中删除
+     */
+    @Value("${hmdp.seckill.consumer.dead-consumer-idle:600000}")
+    private long deadConsumerIdle;
+
+    /**
+     * 本节点的消费者名称
+     */
+    private final List<String> consumerNames = new ArrayList<>();
+
+    /**
+     * 消费者线程池，每个消费者一个线程
+     */
+    private ExecutorService seckillOrderExecutor;
 
     @PostConstruct
     private void init() {
-        SECKILL_ORDER_EXECUTOR.submit(new VoucherOrderHandler());
+        // 创建每个分区的消费者组，已存在时忽略
+        for (int p = 0; p < partitions; p++) {
+            createGroupIfAbsent(orderQueue(p));
+        }
+        if (stringRedisTemplate.getConnectionFactory() instanceof LettuceConnectionFactory
+                && ((LettuceConnectionFactory) stringRedisTemplate.getConnectionFactory()).isClusterAware()) {
+            log.warn("Redis Cluster下未分片秒杀券的脚本会跨slot，请为秒杀券启用库存分片（hmdp.seckill.stock-shards）");
+        }
+        // 分配本节点的消费者：不分区时全部消费者共享 stream.orders，不保证顺序；
+        // 分区时每个分区只分给本节点的一个消费者，再由分区锁保证整个消费者组中只有一个消费者读取该分区
+        String instance = StrUtil.isBlank(instanceId) ? NetUtil.getLocalHostName() + ":" + serverPort : instanceId;
+        int threads = partitions > 1 ? Math.min(consumerCount, partitions) : consumerCount;
+        seckillOrderExecutor = Executors.newFixedThreadPool(threads);
+        for (int i = 0; i < threads; i++) {
+            List<String> queues = new ArrayList<>();
+            if (partitions == 1) {
+                queues.add(ORDER_QUEUE);
+            } else {
+                for (int p = i; p < partitions; p += threads) {
+                    queues.add(orderQueue(p));
+                }
+            }
+            String consumerName = instance + "-" + i;
+            consumerNames.add(consumerName);
+            seckillOrderExecutor.submit(new VoucherOrderHandler(consumerName, queues));
+        }
+        // 注册未结束的秒杀券预热
+        if (warmUpSeckill) {
+            cacheWarmer.register(SECKILL_STOCK_KEY, (SeckillVoucher last, Integer size) -> seckillVoucherService.query()
+                            .gt("voucher_id", null == last ? 0L : last.getVoucherId())
+                            .gt("end_time", LocalDateTime.now())
+                            .orderByAsc("voucher_id").last("limit " + size).list(),
+                    this::warmUpSeckillVouchers);
+        }
     }
 
+    /**
+     * 预热一页秒杀券：恢复已下单的用户和元数据，库存不存在时写入数据库中的库存
+     * <p>
+     * Redis中已有的库存可能还有未同步到数据库的扣减，因此只在不存在时写入，不会覆盖；
+     * 已下单的用户按秒杀券分页读取，每页写入Redis后再读取下一页，内存和pipeline的大小都不超过一页
+     *
+     * @param vouchers 秒杀券
+     */
+    private void warmUpSeckillVouchers(List<SeckillVoucher> vouchers) {
+        List<Long> voucherIds = vouchers.stream().map(SeckillVoucher::getVoucherId).collect(Collectors.toList());
+        Map<Long, SeckillLayout> layouts = vouchers.stream()
+                .collect(Collectors.toMap(SeckillVoucher::getVoucherId, voucher -> layoutOf(voucher.getVoucherId())));
+        Map<Long, Integer> statuses = voucherService.query().select("id", "status").in("id", voucherIds).list()
+                .stream().collect(Collectors.toMap(Voucher::getId, voucher -> null == voucher.getStatus() ? SeckillMeta.ON_SALE : voucher.getStatus()));
+        // 1. 先写入已下单的用户再写入库存，库存存在后一人一单的判断即可生效
+        for (Long voucherId : voucherIds) {
+            long last = 0;
+            while (true) {
+                List<VoucherOrder> orders = query().select("id", "user_id").eq("voucher_id", voucherId).gt("id", last)
+                        .orderByAsc("id").last("limit " + WARM_UP_BUYER_PAGE).list();
+                if (orders.isEmpty()) {
+                    break;
+                }
+                writeBuyers(voucherId, layouts.get(voucherId), orders);
+                if (orders.size() < WARM_UP_BUYER_PAGE) {
+                    break;
+                }
+                last = orders.get(orders.size() - 1).getId();
+            }
+        }
+        // 2. 写入元数据和库存，分片的秒杀券每个分片各写入一份
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection stringConnection = (StringRedisConnection) connection;
+            for (SeckillVoucher voucher : vouchers) {
+                Long voucherId = voucher.getVoucherId();
+                int n = layouts.get(voucherId).shards;
+                SeckillMeta.write(stringConnection, voucherId, n,
+                        SeckillMeta.of(voucher.getBeginTime(), voucher.getEndTime(), statuses.get(voucherId)));
+                if (n == 1) {
+                    stringConnection.setNX(SECKILL_STOCK_KEY + voucherId, voucher.getStock().toString());
+                    continue;
+                }
+                for (int i = 0; i < n; i++) {
+                    stringConnection.setNX(SeckillStockShards.stockKey(voucherId, i),
+                            String.valueOf(SeckillStockShards.stockOf(voucher.getStock(), n, i)));
+                }
+            }
+            return null;
+        });
+        // 3. 重新读取带有元数据的布局
+        voucherIds.forEach(this.layouts::remove);
+    }
+
+    /**
+     * 通过一次pipeline写入一页已下单的用户，分片的秒杀券按用户所属分片写入
+     */
+    private void writeBuyers(Long voucherId, SeckillLayout layout, List<VoucherOrder> orders) {
+        int n = layout.shards;
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection stringConnection = (StringRedisConnection) connection;
+            if (layout.bitmap) {
+                orders.forEach(order -> stringConnection.setBit(
+                        SeckillBuyers.bitKey(voucherId, n, order.getUserId()), SeckillBuyers.bitOffset(order.getUserId()), true));
+            } else {
+                orders.stream().collect(Collectors.groupingBy(order -> SeckillBuyers.setKey(voucherId, n, order.getUserId()),
+                                Collectors.mapping(order -> order.getUserId().toString(), Collectors.toList())))
+                        .forEach((key, ids) -> stringConnection.sAdd(key, ids.toArray(new String[0])));
+            }
+            return null;
+        });
+    }
+
+    @PreDestroy
+    private void destroy() {
+        seckillOrderExecutor.shutdownNow();
+        migrationExecutor.shutdownNow();
+        // 归还本节点租借的全部库存
+        leases.forEach((voucherId, lease) -> returnLease(voucherId, lease));
+        leases.clear();
+    }
+
+    /**
+     * 分区的订单消息队列
+     * <p>
+     * 各分区使用自己的hash tag，与秒杀券的key不在同一个slot
+     *
+     * @param partition 分区
+     */
+    private String orderQueue(int partition) {
+        return partitions == 1 ? ORDER_QUEUE : ORDER_QUEUE + ":{" + partition + "}";
+    }
+
+    /**
+     * 订单所属分区的消息队列
+     */
+    private String orderQueue(Long voucherId, Long userId) {
+        long id = "voucher".equals(partitionBy) ? voucherId : userId;
+        return orderQueue((int) Math.floorMod(id, (long) partitions));
+    }
+
+    private void createGroupIfAbsent(String queue) {
+        try {
+            stringRedisTemplate.execute((RedisCallback<String>) connection -> connection.streamCommands()
+                    .xGroupCreate(queue.getBytes(StandardCharsets.UTF_8), ORDER_GROUP, ReadOffset.from("0"), true));
+        } catch (RedisSystemException e) {
+            if (null == e.getCause() || !String.valueOf(e.getCause().getMessage()).contains("BUSYGROUP")) {
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * 认领其它消费者（通常是已宕机的节点）pendingList中长时间未确认的订单并处理
+     * <p>
+     * XCLAIM带有最小空闲时间，多个节点同时认领同一条消息时只有一个成功；
+     * 投递次数过多的消息转入死信队列，避免异常消息在消费者之间反复转移。
+     * 分区时未确认的订单只由获得分区锁的消费者接管，这里只清理空闲的消费者
+     */
+    @Scheduled(fixedDelayString = "${hmdp.seckill.consumer.claim-interval:30000}")
+    public void claimPendingOrders() {
+        for (int p = 0; p < partitions; p++) {
+            claimPendingOrders(orderQueue(p));
+        }
+    }
+
+    private void claimPendingOrders(String queue) {
+        try {
+            if (partitions > 1) {
+                deleteIdleConsumers(queue);
+                return;
+            }
+            // 1. 查询消费者组中最早的一批待确认消息，筛选空闲时间足够长的
+            PendingMessages pending = stringRedisTemplate.opsForStream()
+                    .pending(queue, ORDER_GROUP, Range.unbounded(), batchSize);
+            List<RecordId> idle = new ArrayList<>();
+            List<RecordId> dead = new ArrayList<>();
+            for (PendingMessage message : pending) {
+                if (message.getElapsedTimeSinceLastDelivery().toMillis() < claimIdle) {
+                    continue;
+                }
+                (message.getTotalDeliveryCount() >= maxDeliveries ? dead : idle).add(message.getId());
+            }
+            // 2. 认领到本节点的第一个消费者并处理
+            if (!idle.isEmpty()) {
+                List<MapRecord<String, String, String>> claimed = claim(queue, consumerNames.get(0), claimIdle, idle);
+                if (!claimed.isEmpty()) {
+                    log.info("认领{}条待处理订单：{}", claimed.size(), queue);
+                    handleOrders(claimed);
+                }
+            }
+            // 3. 转入死信队列
+            if (!dead.isEmpty()) {
+                for (MapRecord<String, String, String> record : claim(queue, consumerNames.get(0), claimIdle, dead)) {
+                    deadLetter(record);
+                }
+            }
+            // 4. 删除没有待处理消息、长时间空闲的其它消费者
+            deleteIdleConsumers(queue);
+        } catch (Exception e) {
+            log.error("认领待处理订单异常：{}", queue, e);
+        }
+    }
+
+    private void deleteIdleConsumers(String queue) {
+        stringRedisTemplate.opsForStream().consumers(queue, ORDER_GROUP).forEach(consumer -> {
+            if (consumer.pendingCount() == 0 && consumer.idleTimeMs() > deadConsumerIdle
+                    && !consumerNames.contains(consumer.consumerName())) {
+                stringRedisTemplate.opsForStream().deleteConsumer(queue, Consumer.from(ORDER_GROUP, consumer.consumerName()));
+            }
+        });
+    }
+
+    /**
+     * 多次处理失败的订单转入死信队列并ACK
+     */
+    private void deadLetter(MapRecord<String, ?, ?> record) {
+        Map<String, String> value = new HashMap<>();
+        record.getValue().forEach((k, v) -> value.put(String.valueOf(k), String.valueOf(v)));
+        log.error("订单多次处理失败，转入死信队列：{} {} {}", record.getStream(), record.getId(), value);
+        stringRedisTemplate.opsForStream().add(ORDER_DEAD_QUEUE, value);
+        stringRedisTemplate.opsForStream().acknowledge(record.getStream(), ORDER_GROUP, record.getId());
+    }
+
+    /**
+     * 把待确认的消息转给指定的消费者
+     *
+     * @param queue    消息队列
+     * @param consumer 认领的消费者
+     * @param minIdle  最小空闲时间(ms)，消息在此期间被其它消费者读取过时不认领
+     * @param ids      消息id
+     */
+    private List<MapRecord<String, String, String>> claim(String queue, String consumer, long minIdle, List<RecordId> ids) {
+        List<ByteRecord> records = stringRedisTemplate.execute((RedisCallback<List<ByteRecord>>) connection ->
+                connection.streamCommands().xClaim(queue.getBytes(StandardCharsets.UTF_8), ORDER_GROUP, consumer,
+                        RedisStreamCommands.XClaimOptions.minIdle(Duration.ofMillis(minIdle)).ids(ids)));
+        if (null == records) {
+            return Collections.emptyList();
+        }
+        return records.stream()
+                .map(record -> record.deserialize(StringRedisSerializer.UTF_8, StringRedisSerializer.UTF_8, StringRedisSerializer.UTF_8))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * 整批下单，库存不足而没有创建的订单转入死信队列，之后每个分区一次ACK
+     */
+    private void handleOrders(List<? extends MapRecord<String, ?, ?>> list) {
+        List<VoucherOrder> orders = list.stream()
+                .map(record -> BeanUtil.fillBeanWithMap(record.getValue(), new VoucherOrder(), true))
+                .collect(Collectors.toList());
+        List<VoucherOrder> rejected = proxy.createVoucherOrders(orders);
+        if (!rejected.isEmpty()) {
+            Set<String> rejectedIds = rejected.stream().map(order -> order.getId().toString()).collect(Collectors.toSet());
+            for (MapRecord<String, ?, ?> record : list) {
+                Map<String, String> value = new HashMap<>();
+                record.getValue().forEach((k, v) -> value.put(String.valueOf(k), String.valueOf(v)));
+                if (rejectedIds.contains(value.get("id"))) {
+                    log.error("数据库库存不足，订单转入死信队列：{} {} {}", record.getStream(), record.getId(), value);
+                    value.put("reason", "stock");
+                    stringRedisTemplate.opsForStream().add(ORDER_DEAD_QUEUE, value);
+                }
+            }
+        }
+        list.stream().collect(Collectors.groupingBy(MapRecord::getStream, Collectors.mapping(MapRecord::getId, Collectors.toList())))
+                .forEach((queue, ids) -> stringRedisTemplate.opsForStream()
+                        .acknowledge(queue, ORDER_GROUP, ids.toArray(new RecordId[0])));
+    }
+
+    /**
+     * 订单消费者
+     * <p>
+     * 不分区时本节点的全部消费者共享 stream.orders；分区时消费者只读取获得分区锁的分区，
+     * 整个消费者组中每个分区同一时间只有一个消费者，同一用户的订单按写入的顺序处理
+     */
     private class VoucherOrderHandler implements Runnable {
-        String queueName = "stream.orders";
-        String groupName = "g1";
-        String consumerName = "c1";
+        private final String consumerName;
+
+        /**
+         * 分配给本消费者的分区
+         */
+        private final List<String> queues;
+
+        /**
+         * 本消费者持有锁的分区 -> 分区锁
+         */
+        private final Map<String, RLock> owned = new LinkedHashMap<>();
+
+        /**
+         * 本消费者正在读取的分区
+         */
+        private StreamOffset<String>[] lastConsumed;
+        private StreamOffset<String>[] pendingList;
+
+        VoucherOrderHandler(String consumerName, List<String> queues) {
+            this.consumerName = consumerName;
+            this.queues = queues;
+            subscribe(partitions > 1 ? Collections.emptyList() : queues);
+        }
 
         @Override
         public void run() {
-            while (true) {
-                try {
-                    // 1. 获取队列中的订单信息
-                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
-                            Consumer.from(groupName, consumerName),
-                            StreamReadOptions.empty().count(1).block(Duration.ofSeconds(2L)),
-                            StreamOffset.create(queueName, ReadOffset.lastConsumed())
-                    );
+            try {
+                // 0. 先处理本消费者在上次运行中未确认的订单
+                handlePendingList();
+                while (!Thread.currentThread().isInterrupted()) {
+                    try {
+                        // 1. 分区时获取分区锁，没有持有任何分区时等待后重试
+                        if (partitions > 1 && !acquirePartitions()) {
+                            Thread.sleep(blockMillis);
+                            continue;
+                        }
+                        // 2. 一次获取队列中的一批订单信息
+                        List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
+                                Consumer.from(ORDER_GROUP, consumerName),
+                                StreamReadOptions.empty().count(batchSize).block(Duration.ofMillis(blockMillis)),
+                                lastConsumed
+                        );
+
+                        // 3. 判断消息获取是否成功
+                        if (list == null || list.isEmpty()) {
+                            // 如果获取失败，说明没有消息，继续下一次循环
+                            continue;
+                        }
+                        // 4. 整批下单并ACK确认
+                        handleOrders(list);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } catch (Exception e) {
+                        log.error("处理订单异常", e);
+                        handlePendingList();
+                    }
+                }
+            } finally {
+                releasePartitions();
+            }
+        }
 
-                    // 2. 判断消息获取是否成功
-                    if (list == null || list.isEmpty()) {
-                        // 如果获取失败，说明没有消息，继续下一次循环
+        /**
+         * 检查已持有的分区锁并尝试获取其余分区的锁，新获得的分区先接管并处理其中未确认的订单，再读取新的订单
+         *
+         * @return 是否持有至少一个分区
+         */
+        private boolean acquirePartitions() {
+            boolean changed = false;
+            for (String queue : queues) {
+                RLock lock = owned.get(queue);
+                if (null != lock) {
+                    if (lock.isHeldByCurrentThread()) {
                         continue;
                     }
-                    // 3. 解析消息中的订单
-                    MapRecord<String, Object, Object> record = list.get(0);
-                    VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(record.getValue(), new VoucherOrder(), true);
-                    // 4. 下单
-                    handleVoucherOrder(voucherOrder);
-                    // 5. ACK确认
-                    stringRedisTemplate.opsForStream().acknowledge(queueName, groupName, record.getId());
+                    // 锁已过期（如与Redis断开超过看门狗的续期时间），分区可能已被其它消费者接管
+                    log.warn("失去订单分区：{} {}", queue, consumerName);
+                    owned.remove(queue);
+                    changed = true;
+                }
+                lock = redissonClient.getLock(ORDER_PARTITION_LOCK + queue);
+                if (lock.tryLock()) {
+                    try {
+                        takeOver(queue);
+                    } catch (Exception e) {
+                        lock.unlock();
+                        throw e;
+                    }
+                    owned.put(queue, lock);
+                    changed = true;
+                    log.info("获得订单分区：{} {}", queue, consumerName);
+                }
+            }
+            if (changed) {
+                subscribe(owned.keySet());
+                handlePendingList();
+            }
+            return !owned.isEmpty();
+        }
+
+        /**
+         * 把分区中其它消费者未确认的订单全部转到本消费者，之后由 handlePendingList 按顺序处理
+         */
+        private void takeOver(String queue) {
+            Range<String> range = Range.unbounded();
+            while (true) {
+                PendingMessages pending = stringRedisTemplate.opsForStream().pending(queue, ORDER_GROUP, range, batchSize);
+                List<RecordId> ids = pending.stream()
+                        .filter(message -> !consumerName.equals(message.getConsumerName()))
+                        .map(PendingMessage::getId)
+                        .collect(Collectors.toList());
+                if (!ids.isEmpty()) {
+                    claim(queue, consumerName, 0, ids);
+                }
+                if (pending.size() < batchSize) {
+                    return;
+                }
+                RecordId last = pending.get(pending.size() - 1).getId();
+                range = Range.rightUnbounded(Range.Bound.inclusive(last.getTimestamp() + "-" + (last.getSequence() + 1)));
+            }
+        }
+
+        private void releasePartitions() {
+            // 线程因关闭而被中断时仍需释放锁，其它节点无需等待锁过期即可接管
+            boolean interrupted = Thread.interrupted();
+            owned.forEach((queue, lock) -> {
+                try {
+                    lock.unlock();
                 } catch (Exception e) {
-                    log.error("处理订单异常", e);
-                    handlePendingList();
+                    log.warn("释放订单分区锁失败：{}", queue, e);
                 }
+            });
+            owned.clear();
+            if (interrupted) {
+                Thread.currentThread().interrupt();
             }
         }
 
+        @SuppressWarnings("unchecked")
+        private void subscribe(Collection<String> list) {
+            lastConsumed = list.stream().map(queue -> StreamOffset.create(queue, ReadOffset.lastConsumed())).toArray(StreamOffset[]::new);
+            pendingList = list.stream().map(queue -> StreamOffset.create(queue, ReadOffset.from("0"))).toArray(StreamOffset[]::new);
+        }
+
         /**
-         * 处理出现异常的消息
+         * 处理本消费者pendingList中出现异常的消息
          */
         private void handlePendingList() {
-            while (true) {
+            while (pendingList.length > 0 && !Thread.currentThread().isInterrupted()) {
+                List<MapRecord<String, Object, Object>> list;
                 try {
-                    // 1. 获取pendingList中的订单信息
-                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
-                            Consumer.from(groupName, consumerName),
-                            StreamReadOptions.empty().count(1),
-                            StreamOffset.create(queueName, ReadOffset.from("0"))
+                    // 1. 获取pendingList中的一批订单信息
+                    list = stringRedisTemplate.opsForStream().read(
+                            Consumer.from(ORDER_GROUP, consumerName),
+                            StreamReadOptions.empty().count(batchSize),
+                            pendingList
                     );
-
-                    // 2. 判断消息获取是否成功
-                    if (list == null || list.isEmpty()) {
-                        // 如果获取失败，说明pendingList中没有消息，结束循环
-                        break;
-                    }
-                    // 3. 解析消息中的订单
-                    MapRecord<String, Object, Object> record = list.get(0);
-                    VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(record.getValue(), new VoucherOrder(), true);
-                    // 4. 下单
-                    handleVoucherOrder(voucherOrder);
-                    // 5. ACK确认
-                    stringRedisTemplate.opsForStream().acknowledge(queueName, groupName, record.getId());
                 } catch (Exception e) {
-                    log.error("处理订单异常", e);
+                    log.error("读取pendingList异常", e);
+                    return;
+                }
+                // 2. 判断消息获取是否成功
+                if (list == null || list.isEmpty()) {
+                    // 如果获取失败，说明pendingList中没有消息，结束循环
+                    return;
+                }
+                try {
+                    // 3. 整批下单并ACK确认
+                    handleOrders(list);
+                } catch (Exception e) {
+                    log.error("处理订单异常，逐条重试", e);
+                    // 4. 整批失败时逐条处理，避免一条异常消息阻塞整批；全部失败时结束循环，避免空转
+                    if (!handleOneByOne(list)) {
+                        return;
+                    }
                 }
             }
         }
-    }
 
-    private void handleVoucherOrder(VoucherOrder voucherOrder) {
-        // 1. 获取用户
-        Long userId = voucherOrder.getUserId();
-        // 2. 创建锁对象
-        RLock lock = redissonClient.getLock("lock:order:" + userId);
-        // 3. 获取锁
-        boolean isLock = lock.tryLock();
-        // 4. 判断是否获取锁成功
-        if (!isLock) {
-            // 获取锁失败，返回错误或重试
-            log.error("不允许重复下单");
-            return;
-        }
-        try {
-            // 获取代理对象（事务）
-            proxy.createVoucherOrder(voucherOrder);
-        } finally {
-            // 释放锁
-            lock.unlock();
+        /**
+         * 逐条下单并ACK，投递次数达到上限仍失败的订单转入死信队列
+         *
+         * @return 是否至少有一条处理成功或转入死信队列
+         */
+        private boolean handleOneByOne(List<MapRecord<String, Object, Object>> list) {
+            boolean progressed = false;
+            for (MapRecord<String, Object, Object> record : list) {
+                try {
+                    handleOrders(Collections.singletonList(record));
+                    progressed = true;
+                } catch (Exception e) {
+                    log.error("处理订单异常：{}", record.getId(), e);
+                    try {
+                        PendingMessages pending = stringRedisTemplate.opsForStream().pending(record.getStream(),
+                                Consumer.from(ORDER_GROUP, consumerName), Range.closed(record.getId().getValue(), record.getId().getValue()), 1);
+                        if (!pending.isEmpty() && pending.get(0).getTotalDeliveryCount() >= maxDeliveries) {
+                            deadLetter(record);
+                            progressed = true;
+                        }
+                    } catch (Exception ex) {
+                        log.error("查询订单投递次数异常：{}", record.getId(), ex);
+                    }
+                }
+            }
+            return progressed;
         }
     }
 
+    /**
+     * 代理对象（事务），延迟注入自身，消费者线程在还没有请求到达时也能使用
+     */
+    @Lazy
+    @Autowired
     private IVoucherOrderService proxy;
 
     @Override
     public Result seckillVoucher(Long voucherId) {
-        // 获取userId和orderId
+        // 布隆过滤器拦截不存在的优惠券
+        if (!bloomFilterRegistry.mightContain(CACHE_VOUCHER_KEY, voucherId)) {
+            return Result.fail("优惠券不存在！");
+        }
+        // 已售罄的直接拒绝，不再生成订单id和执行脚本；本节点还有租借的库存时仍可售卖
+        if (soldOutRegistry.isSoldOut(voucherId) && !hasLeasedStock(voucherId)) {
+            return Result.fail("库存不足");
+        }
+        // 按本地缓存的秒杀时间和状态直接拒绝，脚本中会按Redis的时间再次校验
+        SeckillLayout layout = layoutOf(voucherId);
+        int eligibility = layout.eligibility(System.currentTimeMillis());
+        if (eligibility != 0) {
+            return Result.fail(failMessage(eligibility));
+        }
         Long userId = UserHolder.getUser().getId();
+        // 启用等候室时只有持有令牌的用户才能执行秒杀脚本，其余用户返回排队的位置
+        if (waitingRoom.isEnabled()) {
+            int admission = waitingRoom.enter(voucherId, userId, stockKeys(voucherId, layout));
+            if (admission == SeckillWaitingRoom.SOLD_OUT && !hasLeasedStock(voucherId)) {
+                soldOutRegistry.markSoldOut(voucherId);
+                return Result.fail(failMessage(1));
+            }
+            if (admission > 0) {
+                return Result.fail("排队中，前面还有" + (admission - 1) + "人", admission);
+            }
+        }
+        // 获取orderId
         long orderId = redisIdWorker.nextId("order");
-        // 1. 执行Lua脚本
-        Long result = stringRedisTemplate.execute(
-                SECKILL_SCRIPT,
-                Collections.emptyList(),
-                voucherId.toString(), userId.toString(), String.valueOf(orderId)
-        );
+        // 1. 执行Lua脚本，订单写入所属分区的消息队列；库存分片时从分片扣减库存
+        int r;
+        if (leaseEnabled && layout.shards == 1) {
+            r = seckillFromLease(voucherId, userId, orderId, layout);
+        } else if (layout.shards > 1) {
+            r = seckillFromShards(voucherId, userId, layout);
+            if (r == 0) {
+                stringRedisTemplate.opsForStream().add(orderQueue(voucherId, userId), MapUtil.builder(new HashMap<String, String>())
+                        .put("userId", userId.toString()).put("voucherId", voucherId.toString()).put("id", String.valueOf(orderId)).build());
+            }
+        } else {
+            Long result = scriptRegistry.execute(
+                    SECKILL_SCRIPT,
+                    buyerKeys(layout, voucherId, userId, orderQueue(voucherId, userId), SECKILL_STOCK_KEY + voucherId, SeckillMeta.key(voucherId)),
+                    buyerArgs(layout, userId, voucherId.toString(), userId.toString(), String.valueOf(orderId))
+            );
+            assert result != null;
+            r = result.intValue();
+        }
         // 2. 判断结果是否为0
         // 2.1 不为0，没有购买资格
-        assert result != null;
-        int r = result.intValue();
         if (r != 0) {
-            // 2.2 不为0，代表没有购买资格
-            return Result.fail(r == 1 ? "库存不足" : "不能重复下单");
+            // 2.2 不为0，代表没有购买资格，库存不足时标记售罄并通知其它节点
+            if (r == 1) {
+                soldOutRegistry.markSoldOut(voucherId);
+            }
+            return Result.fail(failMessage(r));
         }
 
-        // 3. 获取代理对象
-        proxy = (IVoucherOrderService) AopContext.currentProxy();
-
-        // 4. 返回订单ID
+        // 3. 返回订单ID
         return Result.ok(orderId);
     }
 
-    @Transactional
     @Override
-    public void createVoucherOrder(VoucherOrder voucherOrder) {
-        // 5. 一人一单
-        Long userId = voucherOrder.getUserId();
-        // 5.1 查询订单
-        int count = query().eq("user_id", userId).eq("voucher_id", voucherOrder.getVoucherId()).count();
-        // 5.2 判断是否存在
-        if (count > 0) {
-            // 用户已经购买过了
-            log.error("用户已经购买过一次！");
+    public Result queryWaitingRoom(Long voucherId) {
+        return Result.ok(waitingRoom.status(voucherId, UserHolder.getUser().getId()));
+    }
+
+    /**
+     * 秒杀券在Redis中的库存key，分片时为全部分片
+     */
+    private List<String> stockKeys(Long voucherId, SeckillLayout layout) {
+        if (layout.shards == 1) {
+            return Collections.singletonList(SECKILL_STOCK_KEY + voucherId);
+        }
+        List<String> keys = new ArrayList<>(layout.shards);
+        for (int i = 0; i < layout.shards; i++) {
+            keys.add(SeckillStockShards.stockKey(voucherId, i));
+        }
+        return keys;
+    }
+
+    /**
+     * 秒杀脚本及本地校验的结果对应的提示
+     */
+    private static String failMessage(int r) {
+        switch (r) {
+            case 1:
+                return "库存不足";
+            case 2:
+                return "不能重复下单";
+            case 4:
+                return "秒杀尚未开始！";
+            case 5:
+                return "秒杀已经结束！";
+            default:
+                return "优惠券已下架！";
+        }
+    }
+
+    /**
+     * 查询秒杀券的布局：库存分片数（不分片为1）、是否使用位图判断一人一单，以及秒杀时间和状态
+     */
+    @SuppressWarnings("unchecked")
+    private SeckillLayout layoutOf(Long voucherId) {
+        SeckillLayout layout = layouts.get(voucherId, false);
+        if (null == layout) {
+            List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection stringConnection = (StringRedisConnection) connection;
+                stringConnection.mGet(SECKILL_SHARDS_KEY + voucherId, SECKILL_DEDUP_KEY + voucherId);
+                stringConnection.hMGet(SeckillMeta.key(voucherId), SeckillMeta.BEGIN, SeckillMeta.END, SeckillMeta.STATUS);
+                return null;
+            });
+            List<String> values = (List<String>) results.get(0);
+            List<String> meta = (List<String>) results.get(1);
+            String shards = values.get(0);
+            layout = new SeckillLayout(null == shards ? 1 : Integer.parseInt(shards),
+                    SeckillBuyers.BITMAP.equals(values.get(1)), meta);
+            layouts.put(voucherId, layout);
+        }
+        return layout;
+    }
+
+    /**
+     * 脚本的KEYS：在调用方的key之后依次加上已下单用户集合，位图模式时再加上用户所在的位图段
+     */
+    private List<String> buyerKeys(SeckillLayout layout, Long voucherId, Long userId, String... keys) {
+        List<String> list = new ArrayList<>(Arrays.asList(keys));
+        list.add(SeckillBuyers.setKey(voucherId, layout.shards, userId));
+        if (layout.bitmap) {
+            list.add(SeckillBuyers.bitKey(voucherId, layout.shards, userId));
+        }
+        return list;
+    }
+
+    /**
+     * 脚本的ARGV：位图模式时在调用方的参数之后加上用户在位图段中的偏移量
+     */
+    private String[] buyerArgs(SeckillLayout layout, Long userId, String... args) {
+        if (!layout.bitmap) {
+            return args;
+        }
+        String[] list = Arrays.copyOf(args, args.length + 1);
+        list[args.length] = String.valueOf(SeckillBuyers.bitOffset(userId));
+        return list;
+    }
+
+    /**
+     * 把秒杀券的已下单用户从集合迁移到位图
+     * <p>
+     * 先把集合复制到位图并切换为位图模式，位图模式的脚本同时检查集合，因此迁移期间仍按集合判断的节点写入的用户不会被漏掉；
+     * 等所有节点的本地缓存过期后再复制一次并删除集合
+     *
+     * @param voucherId 优惠券id
+     * @return 复制的用户数
+     */
+    @Override
+    public long migrateBuyersToBitmap(Long voucherId) {
+        layouts.remove(voucherId);
+        SeckillLayout layout = layoutOf(voucherId);
+        // 1. 复制集合到位图
+        long copied = copyBuyersToBitmap(voucherId, layout.shards);
+        // 2. 切换为位图模式
+        stringRedisTemplate.opsForValue().set(SECKILL_DEDUP_KEY + voucherId, SeckillBuyers.BITMAP);
+        layouts.remove(voucherId);
+        // 3. 所有节点都切换后再复制一次，然后删除集合
+        migrationExecutor.schedule(() -> {
+            try {
+                long late = copyBuyersToBitmap(voucherId, layout.shards);
+                List<String> setKeys = new ArrayList<>();
+                for (int i = 0; i < layout.shards; i++) {
+                    setKeys.add(layout.shards > 1 ? SeckillStockShards.orderKey(voucherId, i) : SECKILL_ORDER_KEY + voucherId);
+                }
+                stringRedisTemplate.delete(setKeys);
+                log.info("秒杀券{}的已下单用户迁移到位图完成，迁移期间新增{}个", voucherId, late);
+            } catch (Exception e) {
+                log.error("秒杀券{}的已下单用户迁移失败，集合保留，可重新迁移", voucherId, e);
+            }
+        }, LAYOUT_TTL * 2, TimeUnit.MILLISECONDS);
+        return copied;
+    }
+
+    /**
+     * 分批扫描已下单用户的集合，通过pipeline写入位图
+     */
+    private long copyBuyersToBitmap(Long voucherId, int shards) {
+        long copied = 0;
+        for (int i = 0; i < shards; i++) {
+            String setKey = shards > 1 ? SeckillStockShards.orderKey(voucherId, i) : SECKILL_ORDER_KEY + voucherId;
+            List<Long> batch = new ArrayList<>();
+            try (Cursor<String> cursor = stringRedisTemplate.opsForSet().scan(setKey, ScanOptions.scanOptions().count(1000).build())) {
+                while (cursor.hasNext()) {
+                    batch.add(Long.valueOf(cursor.next()));
+                    if (batch.size() >= 1000 || !cursor.hasNext()) {
+                        setBits(voucherId, shards, batch);
+                        copied += batch.size();
+                        batch.clear();
+                    }
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return copied;
+    }
+
+    private void setBits(Long voucherId, int shards, List<Long> userIds) {
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection stringConnection = (StringRedisConnection) connection;
+            for (Long userId : userIds) {
+                stringConnection.setBit(SeckillBuyers.bitKey(voucherId, shards, userId), SeckillBuyers.bitOffset(userId), true);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 秒杀券的布局
+     */
+    private static class SeckillLayout {
+        /**
+         * 库存分片数，不分片为1
+         */
+        private final int shards;
+        /**
+         * 是否使用位图判断一人一单
+         */
+        private final boolean bitmap;
+
+        /**
+         * 秒杀的开始、结束时间（毫秒时间戳）和状态，没有元数据时为空，不校验
+         */
+        private final Long beginTime;
+        private final Long endTime;
+        private final Integer status;
+
+        SeckillLayout(int shards, boolean bitmap, List<String> meta) {
+            this.shards = shards;
+            this.bitmap = bitmap;
+            boolean present = null != meta && null != meta.get(0);
+            this.beginTime = present ? Long.valueOf(meta.get(0)) : null;
+            this.endTime = present ? Long.valueOf(meta.get(1)) : null;
+            this.status = present ? Integer.valueOf(meta.get(2)) : null;
+        }
+
+        /**
+         * 按本地时间判断是否可以秒杀，返回值与秒杀脚本一致：0可以，4未开始，5已结束，6已下架
+         */
+        int eligibility(long now) {
+            if (null == beginTime) {
+                return 0;
+            }
+            if (status != SeckillMeta.ON_SALE) {
+                return 6;
+            }
+            if (now < beginTime) {
+                return 4;
+            }
+            return now > endTime ? 5 : 0;
+        }
+    }
+
+    /**
+     * 从库存分片扣减库存
+     * <p>
+     * 先在用户所属分片登记用户并尝试扣减；该分片售罄时从其它分片逐个尝试，起点随机，避免都涌向同一个分片；
+     * 全部售罄时撤销登记。扣减成功后由调用方发送订单消息，两步之间宕机只会少卖，不会超卖
+     *
+     * @return 0 成功；1 库存不足；2 重复下单
+     */
+    private int seckillFromShards(Long voucherId, Long userId, SeckillLayout layout) {
+        // 1. 在所属分片登记用户并扣减库存
+        int shards = layout.shards;
+        int home = SeckillStockShards.shardOf(userId, shards);
+        Long result = scriptRegistry.execute(SECKILL_SHARD_SCRIPT,
+                buyerKeys(layout, voucherId, userId, SeckillStockShards.stockKey(voucherId, home), SeckillMeta.key(voucherId, home)),
+                buyerArgs(layout, userId, userId.toString()));
+        assert result != null;
+        if (result != 3) {
+            return result.intValue();
+        }
+        // 2. 所属分片售罄，从其它分片扣减
+        int start = ThreadLocalRandom.current().nextInt(shards);
+        for (int i = 0; i < shards; i++) {
+            int shard = (start + i) % shards;
+            if (shard == home) {
+                continue;
+            }
+            Long taken = scriptRegistry.execute(SECKILL_TAKE_SCRIPT,
+                    Collections.singletonList(SeckillStockShards.stockKey(voucherId, shard)));
+            if (null != taken && taken == 0) {
+                return 0;
+            }
+        }
+        // 3. 全部售罄，撤销登记
+        if (layout.bitmap) {
+            stringRedisTemplate.opsForValue().setBit(SeckillBuyers.bitKey(voucherId, shards, userId), SeckillBuyers.bitOffset(userId), false);
+        } else {
+            stringRedisTemplate.opsForSet().remove(SeckillBuyers.setKey(voucherId, shards, userId), userId.toString());
+        }
+        return 1;
+    }
+
+    private boolean hasLeasedStock(Long voucherId) {
+        StockLease lease = leases.get(voucherId);
+        return null != lease && lease.remaining.get() > 0;
+    }
+
+    /**
+     * 使用本节点租借的库存下单
+     * <p>
+     * 本地库存用完时从Redis再租借一批，Redis中的库存键每批只访问一次；一人一单仍在Redis中集中判断，
+     * 每次下单执行一次脚本，与不租借时的脚本次数相同，重复下单时把库存退回本地
+     *
+     * @return 0 成功；1 库存不足；2 重复下单
+     */
+    private int seckillFromLease(Long voucherId, Long userId, long orderId, SeckillLayout layout) {
+        StockLease lease = leases.computeIfAbsent(voucherId, id -> {
+            SeckillVoucher voucher = seckillVoucherService.getById(id);
+            return new StockLease(null == voucher ? null : voucher.getEndTime());
+        });
+        // 1. 扣减本地库存，不足时从Redis租借
+        if (!lease.tryAcquire()) {
+            synchronized (lease) {
+                if (!lease.tryAcquire()) {
+                    Long leased = scriptRegistry.execute(STOCK_LEASE_SCRIPT,
+                            Collections.singletonList(SECKILL_STOCK_KEY + voucherId), String.valueOf(leaseChunk));
+                    if (null == leased || leased == 0) {
+                        return 1;
+                    }
+                    // 本次请求占用其中一个
+                    lease.remaining.addAndGet(leased.intValue() - 1);
+                }
+            }
+        }
+        lease.lastSold = System.currentTimeMillis();
+        // 2. 判断一人一单并发送订单消息
+        Long result = scriptRegistry.execute(SECKILL_LEASED_SCRIPT,
+                buyerKeys(layout, voucherId, userId, orderQueue(voucherId, userId), SeckillMeta.key(voucherId)),
+                buyerArgs(layout, userId, userId.toString(), voucherId.toString(), String.valueOf(orderId)));
+        if (null == result || result != 0) {
+            // 未下单，退回本地库存
+            lease.remaining.incrementAndGet();
+            return null == result ? 1 : result.intValue();
+        }
+        return 0;
+    }
+
+    /**
+     * 归还长时间未卖出或秒杀已结束的租借库存
+     */
+    @Scheduled(fixedDelayString = "${hmdp.seckill.lease.check-interval:5000}")
+    public void returnIdleLeases() {
+        LocalDateTime now = LocalDateTime.now();
+        leases.forEach((voucherId, lease) -> {
+            boolean ended = null != lease.endTime && now.isAfter(lease.endTime);
+            if (ended || System.currentTimeMillis() - lease.lastSold > leaseIdleReturn) {
+                returnLease(voucherId, lease);
+            }
+            if (ended) {
+                leases.remove(voucherId, lease);
+            }
+        });
+    }
+
+    private void returnLease(Long voucherId, StockLease lease) {
+        int remaining = lease.remaining.getAndSet(0);
+        if (remaining <= 0) {
             return;
         }
-        // 6. 扣减库存
+        try {
+            stringRedisTemplate.opsForValue().increment(SECKILL_STOCK_KEY + voucherId, remaining);
+            // 其它节点可能已标记售罄
+            soldOutRegistry.restocked(voucherId);
+            log.debug("归还秒杀券{}的租借库存{}", voucherId, remaining);
+        } catch (Exception e) {
+            // 归还失败时放回本地，稍后重试
+            lease.remaining.addAndGet(remaining);
+            log.error("归还租借库存失败：{}", voucherId, e);
+        }
+    }
+
+    /**
+     * 本节点租借的库存
+     */
+    private static class StockLease {
+        private final AtomicInteger remaining = new AtomicInteger();
+        private final LocalDateTime endTime;
+        private volatile long lastSold = System.currentTimeMillis();
+
+        StockLease(LocalDateTime endTime) {
+            this.endTime = endTime;
+        }
+
+        /**
+         * 扣减一个本地库存
+         *
+         * @return 本地库存不足时返回false
+         */
+        boolean tryAcquire() {
+            int current;
+            do {
+                current = remaining.get();
+                if (current <= 0) {
+                    return false;
+                }
+            } while (!remaining.compareAndSet(current, current - 1));
+            return true;
+        }
+    }
+
+    @Transactional
+    @Override
+    public List<VoucherOrder> createVoucherOrders(List<VoucherOrder> voucherOrders) {
+        // 5. 一人一单：先在内存中按订单id和用户+优惠券去重
+        Set<Long> orderIds = new HashSet<>();
+        Map<String, VoucherOrder> unique = new LinkedHashMap<>();
+        for (VoucherOrder order : voucherOrders) {
+            if (orderIds.add(order.getId())) {
+                unique.putIfAbsent(order.getUserId() + ":" + order.getVoucherId(), order);
+            }
+        }
+        // 5.1 一次查询这批用户已有的订单，过滤掉已经购买过的（如重新投递的消息）
+        Set<Long> userIds = unique.values().stream().map(VoucherOrder::getUserId).collect(Collectors.toSet());
+        Set<Long> voucherIds = unique.values().stream().map(VoucherOrder::getVoucherId).collect(Collectors.toSet());
+        query().select("user_id", "voucher_id").in("user_id", userIds).in("voucher_id", voucherIds).list()
+                .forEach(existing -> {
+                    if (null != unique.remove(existing.getUserId() + ":" + existing.getVoucherId())) {
+                        log.error("用户已经购买过一次！");
+                    }
+                });
+        // 6. 按优惠券合并扣减库存，每张优惠券一条UPDATE
+        Map<Long, List<VoucherOrder>> byVoucher = unique.values().stream()
+                .collect(Collectors.groupingBy(VoucherOrder::getVoucherId, LinkedHashMap::new, Collectors.toList()));
+        List<VoucherOrder> created = new ArrayList<>(unique.size());
+        List<VoucherOrder> rejected = new ArrayList<>();
+        byVoucher.forEach((voucherId, orders) -> {
+            int count = decreaseStock(voucherId, orders.size());
+            if (count < orders.size()) {
+                // 扣减失败，交给调用方转入死信队列
+                log.error("库存不足！优惠券{}有{}个订单无法创建", voucherId, orders.size() - count);
+                rejected.addAll(orders.subList(count, orders.size()));
+            }
+            created.addAll(orders.subList(0, count));
+        });
+        // 7. 一条语句创建全部订单
+        if (!created.isEmpty()) {
+            getBaseMapper().insertBatch(created);
+        }
+        return rejected;
+    }
+
+    /**
+     * 扣减库存，库存不足时扣减剩余的全部库存
+     *
+     * @param voucherId 优惠券id
+     * @param count     需要扣减的数量
+     * @return 实际扣减的数量
+     */
+    private int decreaseStock(Long voucherId, int count) {
         boolean success = seckillVoucherService
                 .update()
-                .setSql("stock = stock - 1")
-                .eq("voucher_id", voucherOrder.getVoucherId()).gt("stock", 0)
+                .setSql("stock = stock - " + count)
+                .eq("voucher_id", voucherId).ge("stock", count)
                 .update();
-        if (!success) {
-            // 扣减失败
-            log.error("库存不足！");
-            return;
+        if (success) {
+            return count;
         }
-        // 7. 创建订单
-        save(voucherOrder);
+        // Redis中已预扣库存，正常不会走到这里；库存不足时加锁读取当前库存（当前读，不受事务快照影响），只扣减剩余的部分
+        SeckillVoucher voucher = seckillVoucherService.query()
+                .select("stock").eq("voucher_id", voucherId).last("for update").one();
+        int remaining = null == voucher ? 0 : Math.min(voucher.getStock(), count);
+        if (remaining <= 0) {
+            return 0;
+        }
+        seckillVoucherService.update()
+                .setSql("stock = stock - " + remaining)
+                .eq("voucher_id", voucherId)
+                .update();
+        return remaining;
     }
 }
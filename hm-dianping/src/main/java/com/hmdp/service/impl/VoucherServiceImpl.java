@@ -1,5 +1,6 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.util.StrUtil;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.SeckillVoucher;
@@ -7,14 +8,27 @@ import com.hmdp.entity.Voucher;
 import com.hmdp.mapper.VoucherMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.BloomFilterRegistry;
+import com.hmdp.utils.SeckillBuyers;
+import com.hmdp.utils.SeckillMeta;
+import com.hmdp.utils.SeckillStockShards;
+import com.hmdp.utils.SoldOutRegistry;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 import java.util.List;
+import java.util.stream.Collectors;
 
+import static com.hmdp.utils.RedisConstants.CACHE_VOUCHER_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_DEDUP_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_SHARDS_KEY;
 import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
 
 /**
@@ -34,6 +48,32 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
     @Autowired
     private StringRedisTemplate stringRedisTemplate;
 
+    @Autowired
+    private BloomFilterRegistry bloomFilterRegistry;
+
+    @Autowired
+    private SoldOutRegistry soldOutRegistry;
+
+    /**
+     * 秒杀库存默认的分片数，为1时不分片
+     */
+    @Value("${hmdp.seckill.stock-shards:1}")
+    private int defaultStockShards;
+
+    /**
+     * 一人一单默认的判断方式：set 或 bitmap
+     */
+    @Value("${hmdp.seckill.buyer-dedup:set}")
+    private String defaultBuyerDedup;
+
+    @PostConstruct
+    private void init() {
+        // 注册优惠券id的布隆过滤器，应用启动完成后从数据库重建
+        bloomFilterRegistry.register(CACHE_VOUCHER_KEY, (lastId, size) -> query()
+                .select("id").gt("id", lastId).orderByAsc("id").last("limit " + size)
+                .list().stream().map(Voucher::getId).collect(Collectors.toList()));
+    }
+
     @Override
     public Result queryVoucherOfShop(Long shopId) {
         // 查询优惠券信息
@@ -54,7 +94,29 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         seckillVoucher.setBeginTime(voucher.getBeginTime());
         seckillVoucher.setEndTime(voucher.getEndTime());
         seckillVoucherService.save(seckillVoucher);
-        // 保存秒杀库存到Redis中
-        stringRedisTemplate.opsForValue().set(SECKILL_STOCK_KEY + voucher.getId(), voucher.getStock().toString());
+        // 保存秒杀库存和元数据到Redis中，分片时把库存平均分配到各分片
+        int shards = null == voucher.getStockShards() ? defaultStockShards : voucher.getStockShards();
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection stringConnection = (StringRedisConnection) connection;
+            SeckillMeta.write(stringConnection, voucher.getId(), shards,
+                    SeckillMeta.of(voucher.getBeginTime(), voucher.getEndTime(), voucher.getStatus()));
+            if (shards > 1) {
+                for (int i = 0; i < shards; i++) {
+                    stringConnection.set(SeckillStockShards.stockKey(voucher.getId(), i),
+                            String.valueOf(SeckillStockShards.stockOf(voucher.getStock(), shards, i)));
+                }
+                stringConnection.set(SECKILL_SHARDS_KEY + voucher.getId(), String.valueOf(shards));
+            } else {
+                stringConnection.set(SECKILL_STOCK_KEY + voucher.getId(), voucher.getStock().toString());
+            }
+            return null;
+        });
+        // 使用位图判断一人一单时记录到Redis中
+        String buyerDedup = StrUtil.blankToDefault(voucher.getBuyerDedup(), defaultBuyerDedup);
+        if (SeckillBuyers.BITMAP.equals(buyerDedup)) {
+            stringRedisTemplate.opsForValue().set(SECKILL_DEDUP_KEY + voucher.getId(), SeckillBuyers.BITMAP);
+        }
+        // 清除可能存在的售罄标记
+        soldOutRegistry.restocked(voucher.getId());
     }
 }
@@ -0,0 +1,389 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.hash.MurmurHash;
+import cn.hutool.core.util.ReflectUtil;
+import cn.hutool.json.JSONUtil;
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 紧凑的二进制编解码器
+ * <p>
+ * 格式：版本号(1字节) + 类别(1字节) + [逻辑过期时间、重建耗时] + 结构指纹(4字节) + 空值位图 + 各属性的值。
+ * 属性按名称排序，整数使用zigzag变长编码，字符串使用长度前缀的UTF-8，其它类型退化为JSON字符串。
+ * 结构指纹由属性名和类型计算，类的结构发生变化后旧的缓存无法解码，会被当作未命中重新加载
+ *
+ * @author zhinushannan
+ */
+@Slf4j
+public class BinaryCacheCodec implements CacheCodec {
+
+    /**
+     * 格式版本号，JSON不可能以该字节开头，据此区分两种格式
+     */
+    public static final byte VERSION = 0x01;
+
+    private static final byte KIND_PLAIN = 0;
+    private static final byte KIND_LOGICAL = 1;
+
+    private static final byte TYPE_LONG = 1;
+    private static final byte TYPE_INT = 2;
+    private static final byte TYPE_DOUBLE = 3;
+    private static final byte TYPE_BOOLEAN = 4;
+    private static final byte TYPE_STRING = 5;
+    private static final byte TYPE_DATE_TIME = 6;
+    private static final byte TYPE_JSON = 7;
+
+    /**
+     * 类 -> 结构
+     */
+    private static final Map<Class<?>, Schema> SCHEMAS = new ConcurrentHashMap<>();
+
+    private final JsonCacheCodec jsonCodec = new JsonCacheCodec();
+
+    @Override
+    public byte[] encode(Object value) {
+        if (isSimpleType(value.getClass())) {
+            // 非实体类型使用JSON编码，解码时根据首字节识别
+            return jsonCodec.encode(value);
+        }
+        try {
+            Output out = new Output();
+            out.writeByte(VERSION);
+            out.writeByte(KIND_PLAIN);
+            writeObject(out, value);
+            return out.toByteArray();
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public <T> T decode(byte[] bytes, Class<T> type) {
+        try {
+            Input in = new Input(bytes);
+            if (in.readByte() != VERSION || in.readByte() != KIND_PLAIN) {
+                return null;
+            }
+            return readObject(in, type);
+        } catch (Exception e) {
+            log.debug("缓存解码失败：{}", type.getName(), e);
+            return null;
+        }
+    }
+
+    @Override
+    public byte[] encodeLogical(RedisData redisData) {
+        Object data = redisData.getData();
+        if (null == data || isSimpleType(data.getClass())) {
+            // 与encode一致，空值和非实体类型使用JSON编码，解码时根据首字节识别
+            return jsonCodec.encodeLogical(redisData);
+        }
+        try {
+            Output out = new Output();
+            out.writeByte(VERSION);
+            out.writeByte(KIND_LOGICAL);
+            out.writeVarLong(redisData.getExpireTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli());
+            out.writeVarLong(null == redisData.getDelta() ? -1L : redisData.getDelta());
+            writeObject(out, data);
+            return out.toByteArray();
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public RedisData decodeLogical(byte[] bytes, Class<?> type) {
+        try {
+            Input in = new Input(bytes);
+            if (in.readByte() != VERSION || in.readByte() != KIND_LOGICAL) {
+                return null;
+            }
+            RedisData redisData = new RedisData();
+            redisData.setExpireTime(LocalDateTime.ofInstant(Instant.ofEpochMilli(in.readVarLong()), ZoneId.systemDefault()));
+            long delta = in.readVarLong();
+            redisData.setDelta(delta < 0 ? null : delta);
+            Object data = readObject(in, type);
+            if (null == data) {
+                return null;
+            }
+            redisData.setData(data);
+            return redisData;
+        } catch (Exception e) {
+            log.debug("缓存解码失败：{}", type.getName(), e);
+            return null;
+        }
+    }
+
+    private void writeObject(Output out, Object value) throws IllegalAccessException {
+        Schema schema = schemaOf(value.getClass());
+        out.writeInt(schema.fingerprint);
+        // 空值位图
+        Object[] values = new Object[schema.fields.length];
+        byte[] nulls = new byte[(schema.fields.length + 7) / 8];
+        for (int i = 0; i < schema.fields.length; i++) {
+            values[i] = schema.fields[i].get(value);
+            if (null == values[i]) {
+                nulls[i >>> 3] |= (byte) (1 << (i & 7));
+            }
+        }
+        out.writeBytes(nulls);
+        // 非空属性的值
+        for (int i = 0; i < schema.fields.length; i++) {
+            if (null != values[i]) {
+                writeValue(out, schema.types[i], values[i]);
+            }
+        }
+    }
+
+    private <T> T readObject(Input in, Class<T> type) throws IllegalAccessException {
+        Schema schema = schemaOf(type);
+        if (in.readInt() != schema.fingerprint) {
+            // 类的结构已变化
+            return null;
+        }
+        byte[] nulls = in.readBytes((schema.fields.length + 7) / 8);
+        T obj = ReflectUtil.newInstance(type);
+        for (int i = 0; i < schema.fields.length; i++) {
+            if ((nulls[i >>> 3] & (1 << (i & 7))) == 0) {
+                schema.fields[i].set(obj, readValue(in, schema.types[i], schema.fields[i]));
+            }
+        }
+        return obj;
+    }
+
+    private void writeValue(Output out, byte type, Object value) {
+        switch (type) {
+            case TYPE_LONG:
+                out.writeVarLong((Long) value);
+                break;
+            case TYPE_INT:
+                out.writeVarLong((Integer) value);
+                break;
+            case TYPE_DOUBLE:
+                out.writeLong(Double.doubleToRawLongBits((Double) value));
+                break;
+            case TYPE_BOOLEAN:
+                out.writeByte((Boolean) value ? (byte) 1 : (byte) 0);
+                break;
+            case TYPE_STRING:
+                out.writeString((String) value);
+                break;
+            case TYPE_DATE_TIME:
+                LocalDateTime dateTime = (LocalDateTime) value;
+                out.writeVarLong(dateTime.toEpochSecond(ZoneOffset.UTC));
+                out.writeVarLong(dateTime.getNano());
+                break;
+            default:
+                out.writeString(JSONUtil.toJsonStr(value));
+        }
+    }
+
+    private Object readValue(Input in, byte type, Field field) {
+        switch (type) {
+            case TYPE_LONG:
+                return in.readVarLong();
+            case TYPE_INT:
+                return (int) in.readVarLong();
+            case TYPE_DOUBLE:
+                return Double.longBitsToDouble(in.readLong());
+            case TYPE_BOOLEAN:
+                return in.readByte() != 0;
+            case TYPE_STRING:
+                return in.readString();
+            case TYPE_DATE_TIME:
+                long seconds = in.readVarLong();
+                return LocalDateTime.ofEpochSecond(seconds, (int) in.readVarLong(), ZoneOffset.UTC);
+            default:
+                return JSONUtil.toBean(in.readString(), field.getGenericType(), false);
+        }
+    }
+
+    private static boolean isSimpleType(Class<?> type) {
+        return type.isPrimitive() || type.isArray() || type.getName().startsWith("java.");
+    }
+
+    private static Schema schemaOf(Class<?> type) {
+        return SCHEMAS.computeIfAbsent(type, Schema::new);
+    }
+
+    /**
+     * 类的结构：参与编码的属性、属性的类型以及结构指纹
+     */
+    private static class Schema {
+        private final Field[] fields;
+        private final byte[] types;
+        private final int fingerprint;
+
+        Schema(Class<?> type) {
+            // 按名称排序，保证不同节点、不同JVM上的属性顺序一致
+            this.fields = Arrays.stream(ReflectUtil.getFields(type))
+                    .filter(f -> !Modifier.isStatic(f.getModifiers()) && !Modifier.isTransient(f.getModifiers()))
+                    .sorted(Comparator.comparing(Field::getName))
+                    .toArray(Field[]::new);
+            for (Field field : fields) {
+                field.setAccessible(true);
+            }
+            this.types = new byte[fields.length];
+            StringBuilder signature = new StringBuilder(type.getName());
+            for (int i = 0; i < fields.length; i++) {
+                types[i] = typeOf(fields[i].getType());
+                signature.append(';').append(fields[i].getName()).append(':').append(fields[i].getType().getName());
+            }
+            this.fingerprint = MurmurHash.hash32(signature);
+        }
+
+        private static byte typeOf(Class<?> type) {
+            if (type == Long.class || type == long.class) {
+                return TYPE_LONG;
+            }
+            if (type == Integer.class || type == int.class) {
+                return TYPE_INT;
+            }
+            if (type == Double.class || type == double.class) {
+                return TYPE_DOUBLE;
+            }
+            if (type == Boolean.class || type == boolean.class) {
+                return TYPE_BOOLEAN;
+            }
+            if (type == String.class) {
+                return TYPE_STRING;
+            }
+            if (type == LocalDateTime.class) {
+                return TYPE_DATE_TIME;
+            }
+            return TYPE_JSON;
+        }
+    }
+
+    /**
+     * 可扩容的写缓冲区
+     */
+    private static class Output {
+        private byte[] buf = new byte[256];
+        private int size;
+
+        void writeByte(byte b) {
+            ensure(1);
+            buf[size++] = b;
+        }
+
+        void writeBytes(byte[] bytes) {
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buf, size, bytes.length);
+            size += bytes.length;
+        }
+
+        void writeInt(int v) {
+            ensure(4);
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                buf[size++] = (byte) (v >>> shift);
+            }
+        }
+
+        void writeLong(long v) {
+            ensure(8);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                buf[size++] = (byte) (v >>> shift);
+            }
+        }
+
+        /**
+         * zigzag变长编码，绝对值小的数占用字节少
+         */
+        void writeVarLong(long v) {
+            long zigzag = (v << 1) ^ (v >> 63);
+            ensure(10);
+            while ((zigzag & ~0x7FL) != 0) {
+                buf[size++] = (byte) ((zigzag & 0x7F) | 0x80);
+                zigzag >>>= 7;
+            }
+            buf[size++] = (byte) zigzag;
+        }
+
+        void writeString(String s) {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(bytes.length);
+            writeBytes(bytes);
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buf, size);
+        }
+
+        private void ensure(int n) {
+            if (size + n > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, size + n));
+            }
+        }
+    }
+
+    /**
+     * 读缓冲区
+     */
+    private static class Input {
+        private final byte[] buf;
+        private int pos;
+
+        Input(byte[] buf) {
+            this.buf = buf;
+        }
+
+        byte readByte() {
+            return buf[pos++];
+        }
+
+        byte[] readBytes(int n) {
+            byte[] bytes = Arrays.copyOfRange(buf, pos, pos + n);
+            pos += n;
+            return bytes;
+        }
+
+        int readInt() {
+            int v = 0;
+            for (int i = 0; i < 4; i++) {
+                v = (v << 8) | (buf[pos++] & 0xFF);
+            }
+            return v;
+        }
+
+        long readLong() {
+            long v = 0;
+            for (int i = 0; i < 8; i++) {
+                v = (v << 8) | (buf[pos++] & 0xFF);
+            }
+            return v;
+        }
+
+        long readVarLong() {
+            long zigzag = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = buf[pos++];
+                zigzag |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return (zigzag >>> 1) ^ -(zigzag & 1);
+        }
+
+        String readString() {
+            int length = (int) readVarLong();
+            String s = new String(buf, pos, length, StandardCharsets.UTF_8);
+            pos += length;
+            return s;
+        }
+    }
+
+}
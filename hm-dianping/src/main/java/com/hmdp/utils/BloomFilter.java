@@ -0,0 +1,153 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.hash.MurmurHash;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 布隆过滤器的本地副本，位的排列方式与Redis位图一致，可以与Redis中的位图互相转换
+ * <p>
+ * 只支持添加元素，因此多个副本之间可以通过按位或合并
+ *
+ * @author zhinushannan
+ */
+public class BloomFilter {
+
+    /**
+     * Redis位图允许的最大位数
+     */
+    private static final long MAX_BITS = 1L << 32;
+
+    /**
+     * 位数组的长度
+     */
+    private final long numBits;
+
+    /**
+     * 哈希函数的个数
+     */
+    private final int numHashFunctions;
+
+    /**
+     * 位数组，每个long保存64位
+     */
+    private final AtomicLongArray data;
+
+    /**
+     * 根据预计元素数量和误判率创建布隆过滤器
+     *
+     * @param expectedInsertions 预计元素数量
+     * @param fpp                期望的误判率
+     */
+    public BloomFilter(long expectedInsertions, double fpp) {
+        long n = Math.max(1L, expectedInsertions);
+        // m = -n * ln(p) / (ln2)^2
+        long bits = (long) (-n * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        this.numBits = Math.min(MAX_BITS, Math.max(64L, bits));
+        // k = m / n * ln2
+        this.numHashFunctions = Math.max(1, (int) Math.round((double) numBits / n * Math.log(2)));
+        this.data = new AtomicLongArray((int) ((numBits + 63) / 64));
+    }
+
+    public long getNumBits() {
+        return numBits;
+    }
+
+    public int getNumHashFunctions() {
+        return numHashFunctions;
+    }
+
+    /**
+     * 计算元素对应的位下标，同时也是Redis位图中的偏移量
+     *
+     * @param value 元素
+     * @return 位下标数组
+     */
+    public long[] offsets(Object value) {
+        long[] hash = MurmurHash.hash128(String.valueOf(value).getBytes(StandardCharsets.UTF_8));
+        long[] offsets = new long[numHashFunctions];
+        long combined = hash[0];
+        for (int i = 0; i < numHashFunctions; i++) {
+            // 双重哈希：h1 + i * h2
+            offsets[i] = (combined & Long.MAX_VALUE) % numBits;
+            combined += hash[1];
+        }
+        return offsets;
+    }
+
+    /**
+     * 判断元素是否可能存在
+     *
+     * @param value 元素
+     * @return 返回false时元素一定不存在
+     */
+    public boolean mightContain(Object value) {
+        for (long offset : offsets(value)) {
+            if (!get(offset)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 添加元素
+     *
+     * @param value 元素
+     * @return 元素对应的位下标
+     */
+    public long[] put(Object value) {
+        long[] offsets = offsets(value);
+        for (long offset : offsets) {
+            set(offset);
+        }
+        return offsets;
+    }
+
+    /**
+     * 转换为Redis位图的字节数组，Redis位图中偏移量0对应第一个字节的最高位
+     *
+     * @return 字节数组
+     */
+    public byte[] toRedisBytes() {
+        byte[] bytes = new byte[(int) ((numBits + 7) / 8)];
+        for (int i = 0; i < bytes.length; i++) {
+            long word = data.get(i >>> 3);
+            // 取出该字节对应的8位，并反转为Redis的高位在前
+            int b = (int) (word >>> ((i & 7) << 3)) & 0xFF;
+            bytes[i] = (byte) (Integer.reverse(b) >>> 24);
+        }
+        return bytes;
+    }
+
+    /**
+     * 将Redis位图按位或合并到本地副本
+     *
+     * @param bytes Redis位图的字节数组
+     */
+    public void merge(byte[] bytes) {
+        if (null == bytes) {
+            return;
+        }
+        int length = (int) Math.min(bytes.length, (numBits + 7) / 8);
+        for (int i = 0; i < length; i++) {
+            long b = (Integer.reverse(bytes[i] & 0xFF) >>> 24) & 0xFFL;
+            if (b != 0) {
+                long mask = b << ((i & 7) << 3);
+                int index = i >>> 3;
+                data.getAndUpdate(index, word -> word | mask);
+            }
+        }
+    }
+
+    private boolean get(long offset) {
+        return (data.get((int) (offset >>> 6)) & (1L << offset)) != 0;
+    }
+
+    private void set(long offset) {
+        long mask = 1L << offset;
+        data.getAndUpdate((int) (offset >>> 6), word -> word | mask);
+    }
+
+}
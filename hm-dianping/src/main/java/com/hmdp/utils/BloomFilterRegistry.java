@@ -0,0 +1,217 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.UUID;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+
+import static com.hmdp.utils.RedisConstants.BLOOM_ADD_CHANNEL;
+import static com.hmdp.utils.RedisConstants.BLOOM_KEY;
+
+/**
+ * 按缓存key前缀管理的布隆过滤器，用于在查询Redis和数据库之前拦截不可能存在的id
+ * <p>
+ * 启动时从数据库分页加载全部id重建过滤器，并合并写入Redis位图；新增数据时写入本地副本和Redis位图，
+ * 并通过发布订阅通知其它节点更新各自的本地副本；定时从Redis位图合并，弥补丢失的通知
+ *
+ * @author zhinushannan
+ */
+@Slf4j
+@Component
+public class BloomFilterRegistry implements MessageListener, ApplicationRunner {
+
+    /**
+     * 重建时每页加载的id数量
+     */
+    private static final int LOAD_PAGE_SIZE = 1000;
+
+    /**
+     * 是否启用布隆过滤器
+     */
+    @Value("${hmdp.bloom.enabled:true}")
+    private boolean enabled;
+
+    /**
+     * 每个过滤器预计的元素数量
+     */
+    @Value("${hmdp.bloom.expected-insertions:1000000}")
+    private long expectedInsertions;
+
+    /**
+     * 期望的误判率
+     */
+    @Value("${hmdp.bloom.fpp:0.01}")
+    private double fpp;
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Autowired
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    /**
+     * 缓存key前缀 -> 布隆过滤器
+     */
+    private final Map<String, BloomFilter> filters = new ConcurrentHashMap<>();
+
+    /**
+     * 缓存key前缀 -> 分页加载id的函数，参数为上一页最后一个id和每页数量，返回按id升序排列的下一页id
+     */
+    private final Map<String, BiFunction<Long, Integer, List<Long>>> loaders = new ConcurrentHashMap<>();
+
+    /**
+     * 已经完成重建的过滤器，未完成重建前不拦截任何id
+     */
+    private final Set<String> ready = ConcurrentHashMap.newKeySet();
+
+    @PostConstruct
+    private void init() {
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(BLOOM_ADD_CHANNEL));
+    }
+
+    /**
+     * 注册布隆过滤器，应用启动完成后从数据库重建
+     *
+     * @param keyPrefix 缓存key的前缀
+     * @param loader    分页加载id的函数
+     */
+    public void register(String keyPrefix, BiFunction<Long, Integer, List<Long>> loader) {
+        filters.put(keyPrefix, new BloomFilter(expectedInsertions, fpp));
+        loaders.put(keyPrefix, loader);
+    }
+
+    /**
+     * 判断id是否可能存在
+     *
+     * @param keyPrefix 缓存key的前缀
+     * @param id        id
+     * @return 返回false时id一定不存在；未启用、未注册或尚未重建完成时返回true
+     */
+    public boolean mightContain(String keyPrefix, Object id) {
+        if (!enabled || !ready.contains(keyPrefix)) {
+            return true;
+        }
+        return filters.get(keyPrefix).mightContain(id);
+    }
+
+    /**
+     * 新增id，写入本地副本和Redis位图，并通知其它节点
+     *
+     * @param keyPrefix 缓存key的前缀
+     * @param id        id
+     */
+    public void add(String keyPrefix, Object id) {
+        BloomFilter filter = filters.get(keyPrefix);
+        if (!enabled || null == filter) {
+            return;
+        }
+        long[] offsets = filter.put(id);
+        byte[] key = (BLOOM_KEY + keyPrefix).getBytes(StandardCharsets.UTF_8);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (long offset : offsets) {
+                connection.setBit(key, offset, true);
+            }
+            return null;
+        });
+        stringRedisTemplate.convertAndSend(BLOOM_ADD_CHANNEL, keyPrefix + id);
+    }
+
+    /**
+     * 从数据库分页加载全部id重建过滤器，并合并写入Redis位图
+     *
+     * @param keyPrefix 缓存key的前缀
+     */
+    public void rebuild(String keyPrefix) {
+        BloomFilter filter = filters.get(keyPrefix);
+        BiFunction<Long, Integer, List<Long>> loader = loaders.get(keyPrefix);
+        // 1. 分页加载id写入本地副本，过滤器只增不减，无需清空
+        long lastId = 0L;
+        long count = 0L;
+        while (true) {
+            List<Long> ids = loader.apply(lastId, LOAD_PAGE_SIZE);
+            for (Long id : ids) {
+                filter.put(id);
+            }
+            count += ids.size();
+            if (ids.size() < LOAD_PAGE_SIZE) {
+                break;
+            }
+            lastId = ids.get(ids.size() - 1);
+        }
+        // 2. 写入临时key后按位或合并到Redis位图，不会丢失其它节点同时写入的位
+        byte[] key = (BLOOM_KEY + keyPrefix).getBytes(StandardCharsets.UTF_8);
+        byte[] tmpKey = (BLOOM_KEY + keyPrefix + ":" + UUID.randomUUID().toString(true)).getBytes(StandardCharsets.UTF_8);
+        byte[] bytes = filter.toRedisBytes();
+        stringRedisTemplate.execute((RedisCallback<Object>) connection -> {
+            connection.set(tmpKey, bytes);
+            connection.bitOp(RedisStringCommands.BitOperation.OR, key, key, tmpKey);
+            connection.del(tmpKey);
+            return null;
+        });
+        ready.add(keyPrefix);
+        log.info("布隆过滤器重建完成：{}，共{}个id，{}位，{}个哈希函数", keyPrefix, count, filter.getNumBits(), filter.getNumHashFunctions());
+    }
+
+    /**
+     * 应用启动完成后重建全部过滤器
+     */
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!enabled) {
+            return;
+        }
+        for (String keyPrefix : filters.keySet()) {
+            try {
+                rebuild(keyPrefix);
+            } catch (Exception e) {
+                log.error("布隆过滤器重建失败：{}", keyPrefix, e);
+            }
+        }
+    }
+
+    /**
+     * 定时从Redis位图合并，弥补丢失的新增通知
+     */
+    @Scheduled(fixedDelayString = "${hmdp.bloom.sync-interval:300000}")
+    public void sync() {
+        for (String keyPrefix : ready) {
+            byte[] key = (BLOOM_KEY + keyPrefix).getBytes(StandardCharsets.UTF_8);
+            byte[] bytes = stringRedisTemplate.execute((RedisCallback<byte[]>) connection -> connection.get(key));
+            filters.get(keyPrefix).merge(bytes);
+        }
+    }
+
+    /**
+     * 收到其它节点新增id的通知，消息为缓存key前缀 + id
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        for (Map.Entry<String, BloomFilter> entry : filters.entrySet()) {
+            if (body.startsWith(entry.getKey())) {
+                entry.getValue().put(body.substring(entry.getKey().length()));
+                return;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,45 @@
+package com.hmdp.utils;
+
+/**
+ * 缓存值的编解码器
+ *
+ * @author zhinushannan
+ */
+public interface CacheCodec {
+
+    /**
+     * 编码对象
+     *
+     * @param value 缓存的值
+     * @return 写入redis的字节
+     */
+    byte[] encode(Object value);
+
+    /**
+     * 解码对象
+     *
+     * @param bytes 从redis读取的字节
+     * @param type  缓存的类型
+     * @param <T>   对象类型
+     * @return 返回对象，无法解码时返回null，调用方按未命中处理
+     */
+    <T> T decode(byte[] bytes, Class<T> type);
+
+    /**
+     * 编码逻辑过期的缓存
+     *
+     * @param redisData 逻辑过期的缓存
+     * @return 写入redis的字节
+     */
+    byte[] encodeLogical(RedisData redisData);
+
+    /**
+     * 解码逻辑过期的缓存
+     *
+     * @param bytes 从redis读取的字节
+     * @param type  data的类型
+     * @return 返回data已解码为type类型的RedisData，无法解码时返回null
+     */
+    RedisData decodeLogical(byte[] bytes, Class<?> type);
+
+}
@@ -0,0 +1,66 @@
+package com.hmdp.utils;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * 按缓存key前缀选择编解码器
+ * <p>
+ * 写入时按配置选择，读取时根据首字节识别写入时使用的格式，
+ * 因此切换某个前缀的编解码器（包括滚动升级期间新旧节点并存）时无需清空缓存
+ *
+ * @author zhinushannan
+ */
+@Component
+public class CacheCodecs {
+
+    /**
+     * 使用二进制编解码器的缓存key前缀，其余前缀使用JSON
+     */
+    @Value("${hmdp.cache.codec.binary-prefixes:}")
+    private String[] binaryPrefixes;
+
+    private final CacheCodec jsonCodec = new JsonCacheCodec();
+
+    private final CacheCodec binaryCodec = new BinaryCacheCodec();
+
+    /**
+     * 获取写入某个key时使用的编解码器
+     *
+     * @param key 缓存的键
+     * @return 编解码器
+     */
+    public CacheCodec codecFor(String key) {
+        for (String prefix : binaryPrefixes) {
+            prefix = prefix.trim();
+            if (!prefix.isEmpty() && key.startsWith(prefix)) {
+                return binaryCodec;
+            }
+        }
+        return jsonCodec;
+    }
+
+    public byte[] encode(String key, Object value) {
+        return codecFor(key).encode(value);
+    }
+
+    public byte[] encodeLogical(String key, RedisData redisData) {
+        return codecFor(key).encodeLogical(redisData);
+    }
+
+    public <T> T decode(byte[] bytes, Class<T> type) {
+        return codecOf(bytes).decode(bytes, type);
+    }
+
+    public RedisData decodeLogical(byte[] bytes, Class<?> type) {
+        return codecOf(bytes).decodeLogical(bytes, type);
+    }
+
+    /**
+     * 根据首字节识别缓存的格式
+     */
+    private CacheCodec codecOf(byte[] bytes) {
+        return bytes[0] == BinaryCacheCodec.VERSION ? binaryCodec : jsonCodec;
+    }
+
+}
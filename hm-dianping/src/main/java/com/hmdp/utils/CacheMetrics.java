@@ -0,0 +1,255 @@
+package com.hmdp.utils;
+
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 缓存指标，按缓存key前缀统计命中、空值命中、未命中、互斥锁竞争、重建次数、Redis不可用时的降级查库及重建耗时分布
+ *
+ * @author zhinushannan
+ */
+@Component
+public class CacheMetrics {
+
+    /**
+     * 重建耗时直方图的桶上界(ms)，最后一个桶收集超过最大上界的耗时
+     */
+    private static final long[] LATENCY_BUCKETS = {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000};
+
+    /**
+     * 缓存key前缀 -> 指标
+     */
+    private final Map<String, PrefixMetrics> metrics = new ConcurrentHashMap<>();
+
+    /**
+     * 命中热点key的本地副本
+     */
+    public void hotHit(String keyPrefix) {
+        of(keyPrefix).hotHits.increment();
+    }
+
+    /**
+     * 命中本地缓存
+     */
+    public void localHit(String keyPrefix) {
+        of(keyPrefix).localHits.increment();
+    }
+
+    /**
+     * 命中redis缓存
+     */
+    public void hit(String keyPrefix) {
+        of(keyPrefix).hits.increment();
+    }
+
+    /**
+     * 命中redis中的空值
+     */
+    public void nullHit(String keyPrefix) {
+        of(keyPrefix).nullHits.increment();
+    }
+
+    /**
+     * 未命中，需要查库
+     */
+    public void miss(String keyPrefix) {
+        of(keyPrefix).misses.increment();
+    }
+
+    /**
+     * 被布隆过滤器拦截
+     */
+    public void bloomReject(String keyPrefix) {
+        of(keyPrefix).bloomRejects.increment();
+    }
+
+    /**
+     * 逻辑过期缓存已过期，返回了旧数据
+     */
+    public void staleHit(String keyPrefix) {
+        of(keyPrefix).staleHits.increment();
+    }
+
+    /**
+     * 获取重建互斥锁成功
+     */
+    public void lockWin(String keyPrefix) {
+        of(keyPrefix).lockWins.increment();
+    }
+
+    /**
+     * 获取重建互斥锁失败
+     */
+    public void lockLoss(String keyPrefix) {
+        of(keyPrefix).lockLosses.increment();
+    }
+
+    /**
+     * 重建因前缀达到上限或队列已满被拒绝
+     */
+    public void rebuildRejected(String keyPrefix) {
+        of(keyPrefix).rebuildRejections.increment();
+    }
+
+    /**
+     * 同一个key的重建已在排队或执行，本次提交被合并
+     */
+    public void rebuildDeduplicated(String keyPrefix) {
+        of(keyPrefix).rebuildDedups.increment();
+    }
+
+    /**
+     * Redis不可用，降级直接查库
+     */
+    public void degradedLoad(String keyPrefix) {
+        of(keyPrefix).degradedLoads.increment();
+    }
+
+    /**
+     * Redis不可用，查库超出并发限制被快速拒绝
+     */
+    public void shed(String keyPrefix) {
+        of(keyPrefix).sheds.increment();
+    }
+
+    /**
+     * 记录一次查库重建
+     *
+     * @param keyPrefix 缓存key的前缀
+     * @param millis    重建耗时(ms)
+     * @param success   是否成功
+     */
+    public void rebuild(String keyPrefix, long millis, boolean success) {
+        PrefixMetrics m = of(keyPrefix);
+        if (!success) {
+            m.rebuildFailures.increment();
+            return;
+        }
+        m.rebuilds.increment();
+        m.latencySum.add(millis);
+        m.latencyMax.accumulate(millis);
+        int i = 0;
+        while (i < LATENCY_BUCKETS.length && millis > LATENCY_BUCKETS[i]) {
+            i++;
+        }
+        m.latencyBuckets[i].increment();
+    }
+
+    /**
+     * 获取所有前缀的指标快照
+     *
+     * @return 缓存key前缀 -> 指标
+     */
+    public Map<String, Map<String, Object>> snapshot() {
+        Map<String, Map<String, Object>> result = new TreeMap<>();
+        metrics.forEach((prefix, m) -> result.put(prefix, m.snapshot()));
+        return result;
+    }
+
+    /**
+     * 清空所有指标
+     */
+    public void reset() {
+        metrics.clear();
+    }
+
+    private PrefixMetrics of(String keyPrefix) {
+        return metrics.computeIfAbsent(keyPrefix, k -> new PrefixMetrics());
+    }
+
+    /**
+     * 单个前缀的指标
+     */
+    private static class PrefixMetrics {
+        private final LongAdder hotHits = new LongAdder();
+        private final LongAdder localHits = new LongAdder();
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder nullHits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+        private final LongAdder bloomRejects = new LongAdder();
+        private final LongAdder staleHits = new LongAdder();
+        private final LongAdder lockWins = new LongAdder();
+        private final LongAdder lockLosses = new LongAdder();
+        private final LongAdder rebuilds = new LongAdder();
+        private final LongAdder rebuildFailures = new LongAdder();
+        private final LongAdder rebuildRejections = new LongAdder();
+        private final LongAdder rebuildDedups = new LongAdder();
+        private final LongAdder degradedLoads = new LongAdder();
+        private final LongAdder sheds = new LongAdder();
+        private final LongAdder latencySum = new LongAdder();
+        private final LongAccumulator latencyMax = new LongAccumulator(Math::max, 0L);
+        private final LongAdder[] latencyBuckets = new LongAdder[LATENCY_BUCKETS.length + 1];
+
+        PrefixMetrics() {
+            for (int i = 0; i < latencyBuckets.length; i++) {
+                latencyBuckets[i] = new LongAdder();
+            }
+        }
+
+        Map<String, Object> snapshot() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            long hotHitCount = hotHits.sum();
+            long localHitCount = localHits.sum();
+            long hitCount = hits.sum();
+            long nullHitCount = nullHits.sum();
+            long missCount = misses.sum();
+            long total = hotHitCount + localHitCount + hitCount + nullHitCount + missCount;
+            map.put("hotHits", hotHitCount);
+            map.put("localHits", localHitCount);
+            map.put("hits", hitCount);
+            map.put("nullHits", nullHitCount);
+            map.put("misses", missCount);
+            // 空值命中同样避免了查库，计入命中率
+            map.put("hitRatio", total == 0 ? 0D : (double) (total - missCount) / total);
+            map.put("bloomRejects", bloomRejects.sum());
+            map.put("staleHits", staleHits.sum());
+            map.put("lockWins", lockWins.sum());
+            map.put("lockLosses", lockLosses.sum());
+            long rebuildCount = rebuilds.sum();
+            map.put("rebuilds", rebuildCount);
+            map.put("rebuildFailures", rebuildFailures.sum());
+            map.put("rebuildRejections", rebuildRejections.sum());
+            map.put("rebuildDedups", rebuildDedups.sum());
+            map.put("degradedLoads", degradedLoads.sum());
+            map.put("sheds", sheds.sum());
+            Map<String, Object> latency = new LinkedHashMap<>();
+            latency.put("avg", rebuildCount == 0 ? 0D : (double) latencySum.sum() / rebuildCount);
+            latency.put("max", latencyMax.get());
+            Map<String, Long> buckets = new LinkedHashMap<>();
+            for (int i = 0; i < LATENCY_BUCKETS.length; i++) {
+                buckets.put("le" + LATENCY_BUCKETS[i], latencyBuckets[i].sum());
+            }
+            buckets.put("inf", latencyBuckets[LATENCY_BUCKETS.length].sum());
+            latency.put("buckets", buckets);
+            latency.put("p50", percentile(0.5, rebuildCount));
+            latency.put("p99", percentile(0.99, rebuildCount));
+            map.put("rebuildLatency", latency);
+            return map;
+        }
+
+        /**
+         * 根据直方图估算分位数，返回所在桶的上界
+         */
+        private long percentile(double p, long count) {
+            if (count == 0) {
+                return 0L;
+            }
+            long rank = (long) Math.ceil(p * count);
+            long seen = 0;
+            for (int i = 0; i < LATENCY_BUCKETS.length; i++) {
+                seen += latencyBuckets[i].sum();
+                if (seen >= rank) {
+                    return LATENCY_BUCKETS[i];
+                }
+            }
+            return latencyMax.get();
+        }
+    }
+
+}
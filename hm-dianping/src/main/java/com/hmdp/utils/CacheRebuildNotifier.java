@@ -0,0 +1,130 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static com.hmdp.utils.RedisConstants.CACHE_REBUILT_CHANNEL;
+
+/**
+ * 缓存重建完成的跨节点通知
+ * <p>
+ * 获取互斥锁成功的节点在写入缓存后发布重建完成的消息，获取锁失败的节点阻塞等待该消息，
+ * 超时未收到时再退化为轮询缓存
+ *
+ * @author zhinushannan
+ */
+@Slf4j
+@Component
+public class CacheRebuildNotifier implements MessageListener {
+
+    /**
+     * 是否启用重建通知，关闭时获取锁失败的节点固定休眠后轮询
+     */
+    @Value("${hmdp.cache.rebuild-notify.enabled:true}")
+    private boolean enabled;
+
+    /**
+     * 等待重建通知的超时时间（毫秒）
+     */
+    @Value("${hmdp.cache.rebuild-notify.timeout:200}")
+    private long timeout;
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Autowired
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    /**
+     * 本节点内正在等待重建通知的key
+     */
+    private final Map<String, CompletableFuture<Void>> waiters = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    private void init() {
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(CACHE_REBUILT_CHANNEL));
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 发布缓存重建完成的消息
+     *
+     * @param key 缓存的键
+     */
+    public void publish(String key) {
+        if (enabled) {
+            stringRedisTemplate.convertAndSend(CACHE_REBUILT_CHANNEL, key);
+        }
+    }
+
+    /**
+     * 登记等待某个key的重建通知，需在查询缓存之前调用，避免错过查询与等待之间发布的消息
+     *
+     * @param key 缓存的键
+     * @return 收到通知时完成的future
+     */
+    public CompletableFuture<Void> subscribe(String key) {
+        return waiters.computeIfAbsent(key, k -> new CompletableFuture<>());
+    }
+
+    /**
+     * 取消等待
+     *
+     * @param key    缓存的键
+     * @param signal {@link #subscribe(String)} 返回的future
+     */
+    public void unsubscribe(String key, CompletableFuture<Void> signal) {
+        waiters.remove(key, signal);
+    }
+
+    /**
+     * 等待重建通知
+     *
+     * @param key    缓存的键
+     * @param signal {@link #subscribe(String)} 返回的future
+     * @return 在超时时间内收到通知返回true
+     */
+    public boolean await(String key, CompletableFuture<Void> signal) {
+        try {
+            signal.get(timeout, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException | TimeoutException e) {
+            log.debug("未收到缓存重建通知，退化为轮询：{}", key);
+            return false;
+        } finally {
+            unsubscribe(key, signal);
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String key = new String(message.getBody(), StandardCharsets.UTF_8);
+        CompletableFuture<Void> signal = waiters.remove(key);
+        if (null != signal) {
+            signal.complete(null);
+        }
+    }
+
+}
@@ -0,0 +1,157 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 缓存重建的调度器
+ * <p>
+ * 使用有界队列的线程池执行重建，队列满时直接拒绝而不是无限堆积；每个缓存key前缀同时排队和执行的重建数量有上限，
+ * 避免某一类数据的重建占满线程池；同一个key已经在排队或执行时不再重复提交
+ *
+ * @author zhinushannan
+ */
+@Slf4j
+@Component
+public class CacheRebuildScheduler {
+
+    /**
+     * 重建线程数
+     */
+    @Value("${hmdp.cache.rebuild.threads:10}")
+    private int threads;
+
+    /**
+     * 等待队列的容量
+     */
+    @Value("${hmdp.cache.rebuild.queue-capacity:1000}")
+    private int queueCapacity;
+
+    /**
+     * 每个缓存key前缀同时排队和执行的最大重建数量
+     */
+    @Value("${hmdp.cache.rebuild.per-prefix-limit:4}")
+    private int perPrefixLimit;
+
+    @Autowired
+    private CacheMetrics cacheMetrics;
+
+    private ThreadPoolExecutor executor;
+
+    /**
+     * 缓存key前缀 -> 重建许可
+     */
+    private final Map<String, Semaphore> prefixPermits = new ConcurrentHashMap<>();
+
+    /**
+     * 正在排队或执行重建的key
+     */
+    private final Set<String> pendingKeys = ConcurrentHashMap.newKeySet();
+
+    @PostConstruct
+    private void init() {
+        AtomicInteger index = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                r -> {
+                    Thread thread = new Thread(r, "cache-rebuild-" + index.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * 本节点是否已有该key的重建在排队或执行
+     *
+     * @param key 缓存的键
+     */
+    public boolean isPending(String key) {
+        return pendingKeys.contains(key);
+    }
+
+    /**
+     * 提交重建任务
+     *
+     * @param keyPrefix 缓存key的前缀
+     * @param key       缓存的键
+     * @param task      重建任务
+     * @return 被接受返回true；同一个key已在重建、前缀达到上限或队列已满时返回false
+     */
+    public boolean submit(String keyPrefix, String key, Runnable task) {
+        // 1. 同一个key已经在排队或执行
+        if (!pendingKeys.add(key)) {
+            cacheMetrics.rebuildDeduplicated(keyPrefix);
+            return false;
+        }
+        // 2. 前缀达到上限
+        Semaphore permits = prefixPermits.computeIfAbsent(keyPrefix, k -> new Semaphore(perPrefixLimit));
+        if (!permits.tryAcquire()) {
+            pendingKeys.remove(key);
+            cacheMetrics.rebuildRejected(keyPrefix);
+            return false;
+        }
+        // 3. 提交到线程池，队列已满时拒绝
+        try {
+            executor.execute(() -> {
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    log.error("缓存重建失败：{}", key, e);
+                } finally {
+                    permits.release();
+                    pendingKeys.remove(key);
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            permits.release();
+            pendingKeys.remove(key);
+            cacheMetrics.rebuildRejected(keyPrefix);
+            return false;
+        }
+    }
+
+    /**
+     * 查询线程池的状态
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("threads", executor.getPoolSize());
+        map.put("active", executor.getActiveCount());
+        map.put("queued", executor.getQueue().size());
+        map.put("queueCapacity", queueCapacity);
+        map.put("completed", executor.getCompletedTaskCount());
+        Map<String, Integer> inFlight = new LinkedHashMap<>();
+        prefixPermits.forEach((prefix, permits) -> inFlight.put(prefix, perPrefixLimit - permits.availablePermits()));
+        map.put("inFlight", inFlight);
+        return map;
+    }
+
+    /**
+     * 停止接受新的重建，等待已提交的重建完成
+     */
+    @PreDestroy
+    private void destroy() throws InterruptedException {
+        executor.shutdown();
+        if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+            log.warn("缓存重建未在5秒内完成，强制停止，剩余{}个", executor.shutdownNow().size());
+        }
+    }
+
+}
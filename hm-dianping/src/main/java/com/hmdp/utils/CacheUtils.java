@@ -1,19 +1,35 @@
 package com.hmdp.utils;
 
 import cn.hutool.core.util.BooleanUtil;
-import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 import static com.hmdp.utils.RedisConstants.CACHE_NULL_TTL;
 import static com.hmdp.utils.RedisConstants.LOCK_SHOP_TTL;
@@ -28,6 +44,63 @@ public class CacheUtils {
     @Autowired
     private StringRedisTemplate stringRedisTemplate;
 
+    @Autowired
+    private LocalCache localCache;
+
+    @Autowired
+    private CacheRebuildNotifier rebuildNotifier;
+
+    @Autowired
+    private BloomFilterRegistry bloomFilterRegistry;
+
+    @Autowired
+    private CacheCodecs cacheCodecs;
+
+    @Autowired
+    private CacheMetrics cacheMetrics;
+
+    @Autowired
+    private HotKeyDetector hotKeyDetector;
+
+    @Autowired
+    private CacheRebuildScheduler rebuildScheduler;
+
+    @Autowired
+    private RedisCircuitBreaker redisCircuitBreaker;
+
+    /**
+     * 缓存中表示空值的标记
+     */
+    private static final Object NULL_VALUE = new Object();
+
+    /**
+     * redis中空值的内容
+     */
+    private static final byte[] EMPTY = new byte[0];
+
+    /**
+     * 概率提前刷新的系数，越大越倾向于提前重建
+     */
+    @Value("${hmdp.cache.early-refresh.beta:1.0}")
+    private double earlyRefreshBeta;
+
+    /**
+     * 过期时间的随机抖动比例，实际过期时间在 [ttl, ttl * (1 + ttlJitter)] 之间，避免同时写入的key同时过期
+     */
+    @Value("${hmdp.cache.ttl-jitter:0.1}")
+    private double ttlJitter;
+
+    /**
+     * Redis不可用时，每个缓存key前缀同时查库的最大数量，超出的请求快速失败
+     */
+    @Value("${hmdp.cache.degraded.db-concurrency:10}")
+    private int degradedDbConcurrency;
+
+    /**
+     * 缓存key前缀 -> 降级查库的许可
+     */
+    private final Map<String, Semaphore> degradedPermits = new ConcurrentHashMap<>();
+
     /**
      * 设置过期缓存
      *
@@ -37,7 +110,78 @@ public class CacheUtils {
      * @param unit  缓存的时间单位
      */
     public void set(String key, Object value, Long time, TimeUnit unit) {
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(value), time, unit);
+        setRaw(key, cacheCodecs.encode(key, value), jitter(unit.toSeconds(time)));
+    }
+
+    /**
+     * 通过一次pipeline批量设置过期缓存
+     *
+     * @param keyPrefix 缓存key的前缀
+     * @param values    缓存的值
+     * @param idGetter  从对象中获取id的函数
+     * @param time      缓存的时间
+     * @param unit      缓存的时间单位
+     */
+    public <R> void setBatch(String keyPrefix, Collection<R> values, Function<R, ?> idGetter, Long time, TimeUnit unit) {
+        long seconds = unit.toSeconds(time);
+        redisCircuitBreaker.execute(() -> stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (R value : values) {
+                String key = keyPrefix + idGetter.apply(value);
+                connection.setEx(toBytes(key), jitter(seconds), cacheCodecs.encode(key, value));
+            }
+            return null;
+        }));
+    }
+
+    /**
+     * 通过一次pipeline批量设置逻辑过期缓存，用于预热
+     *
+     * @param keyPrefix 缓存key的前缀
+     * @param values    缓存的值
+     * @param idGetter  从对象中获取id的函数
+     * @param time      缓存的有效时间
+     * @param unit      缓存的有效时间单位
+     */
+    public <R> void setBatchWithLogicalExpire(String keyPrefix, Collection<R> values, Function<R, ?> idGetter, Long time, TimeUnit unit) {
+        LocalDateTime now = LocalDateTime.now();
+        long seconds = unit.toSeconds(time);
+        redisCircuitBreaker.execute(() -> stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (R value : values) {
+                String key = keyPrefix + idGetter.apply(value);
+                RedisData redisData = new RedisData();
+                redisData.setData(value);
+                redisData.setExpireTime(now.plusSeconds(jitter(seconds)));
+                connection.set(toBytes(key), cacheCodecs.encodeLogical(key, redisData));
+            }
+            return null;
+        }));
+    }
+
+    /**
+     * 删除缓存，同时使所有节点的本地缓存失效
+     *
+     * @param key 缓存的键
+     */
+    public void delete(String key) {
+        try {
+            redisCircuitBreaker.execute(() -> stringRedisTemplate.delete(key));
+        } finally {
+            // Redis不可用时也要删除本节点的条目，避免故障期间的写入之后仍读到旧数据
+            localCache.invalidate(key);
+        }
+    }
+
+    /**
+     * 批量删除缓存，同时使所有节点的本地缓存失效
+     *
+     * @param keys 缓存的键
+     */
+    public void delete(Collection<String> keys) {
+        try {
+            redisCircuitBreaker.execute(() -> stringRedisTemplate.delete(keys));
+        } finally {
+            localCache.invalidate(keys);
+        }
     }
 
 
@@ -56,35 +200,429 @@ public class CacheUtils {
      */
     public <R, ID> R queryWithPassThrough(String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
         String key = keyPrefix + id;
-        // 1. 从redis查询
-        String json = stringRedisTemplate.opsForValue().get(key);
-        // 2. 判断是否存在
-        if (StrUtil.isNotBlank(json)) {
-            // 3. 存在，直接返回
-            return JSONUtil.toBean(json, type);
+        // 0.1 布隆过滤器拦截不可能存在的id
+        if (!bloomFilterRegistry.mightContain(keyPrefix, id)) {
+            cacheMetrics.bloomReject(keyPrefix);
+            return null;
+        }
+        // 0.2 热点key优先使用本地副本
+        Object hot = hotKeyDetector.access(key);
+        if (type.isInstance(hot)) {
+            cacheMetrics.hotHit(keyPrefix);
+            return type.cast(hot);
+        }
+        // 0.3 再查本地缓存
+        R local = localCache.get(key, type);
+        if (null != local) {
+            cacheMetrics.localHit(keyPrefix);
+            hotKeyDetector.offer(key, local);
+            return local;
         }
-        // 若不存在，则判断命中的是否是空值
-        if (json != null) {
-            // 返回错误信息
+        // 1. 从redis查询，redis不可用时降级查库
+        Object cached;
+        try {
+            cached = readCache(key, getRaw(key), type);
+        } catch (RedisUnavailableException e) {
+            return loadDegraded(keyPrefix, id, type, dbFallback);
+        }
+        // 2. 判断是否存在
+        if (cached == NULL_VALUE) {
+            // 命中的是空值，返回错误信息
+            cacheMetrics.nullHit(keyPrefix);
             return null;
         }
+        if (null != cached) {
+            // 3. 存在，直接返回
+            cacheMetrics.hit(keyPrefix);
+            return type.cast(cached);
+        }
         // 4. 不存在，根据id查库
-        R r = dbFallback.apply(id);
+        cacheMetrics.miss(keyPrefix);
+        R r = loadFromDb(keyPrefix, id, dbFallback);
         // 5. 不存在，返回错误
         if (null == r) {
             // 向redis写入空值
-            stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
+            writeQuietly(() -> setRaw(key, EMPTY, jitter(TimeUnit.MINUTES.toSeconds(CACHE_NULL_TTL))));
+            return null;
+        }
+        // 6. 存在，写入redis和本地缓存
+        writeQuietly(() -> set(key, r, time, unit));
+        localCache.put(key, r);
+        hotKeyDetector.offer(key, r);
+        return r;
+    }
+
+    /**
+     * 批量查询，使用空值解决缓存穿透
+     * <p>
+     * 一次MGET查询全部key，未命中的id一次性查库，查库结果（包括空值）通过一次pipeline写回redis
+     *
+     * @param keyPrefix  缓存key的前缀
+     * @param ids        缓存key的id集合
+     * @param type       缓存的类型
+     * @param dbFallback 回调函数：根据id集合批量查询数据库的函数，如 listByIds
+     * @param idGetter   从对象中获取id的函数
+     * @param time       缓存过期时间
+     * @param unit       缓存过期时间单位
+     * @param <R>        对象类型
+     * @param <ID>       ID的类型
+     * @return 按ids的顺序返回id到对象的映射，不存在的id不会出现在结果中
+     */
+    public <R, ID> Map<ID, R> queryBatchWithPassThrough(String keyPrefix, Collection<ID> ids, Class<R> type,
+                                                        Function<Collection<ID>, List<R>> dbFallback, Function<R, ID> idGetter,
+                                                        Long time, TimeUnit unit) {
+        Map<ID, R> result = new LinkedHashMap<>();
+        // 1. 去重，并用布隆过滤器、热点key副本和本地缓存过滤
+        List<ID> remoteIds = new ArrayList<>();
+        for (ID id : new LinkedHashSet<>(ids)) {
+            if (!bloomFilterRegistry.mightContain(keyPrefix, id)) {
+                cacheMetrics.bloomReject(keyPrefix);
+                continue;
+            }
+            String key = keyPrefix + id;
+            Object hot = hotKeyDetector.access(key);
+            if (type.isInstance(hot)) {
+                cacheMetrics.hotHit(keyPrefix);
+                result.put(id, type.cast(hot));
+                continue;
+            }
+            R local = localCache.get(key, type);
+            if (null != local) {
+                cacheMetrics.localHit(keyPrefix);
+                hotKeyDetector.offer(key, local);
+                result.put(id, local);
+            } else {
+                remoteIds.add(id);
+            }
+        }
+        if (remoteIds.isEmpty()) {
+            return sortByIds(ids, result);
+        }
+        // 2. 一次MGET从redis查询，redis不可用时降级查库
+        List<String> keys = remoteIds.stream().map(id -> keyPrefix + id).collect(Collectors.toList());
+        List<byte[]> values;
+        try {
+            values = redisCircuitBreaker.execute(() -> stringRedisTemplate.execute((RedisCallback<List<byte[]>>) connection ->
+                    connection.mGet(keys.stream().map(CacheUtils::toBytes).toArray(byte[][]::new))));
+        } catch (RedisUnavailableException e) {
+            result.putAll(loadBatchDegraded(keyPrefix, remoteIds, dbFallback, idGetter));
+            return sortByIds(ids, result);
+        }
+        List<ID> missIds = new ArrayList<>();
+        for (int i = 0; i < remoteIds.size(); i++) {
+            Object cached = readCache(keys.get(i), null == values ? null : values.get(i), type);
+            if (null == cached) {
+                // 2.1 未命中，需要查库
+                cacheMetrics.miss(keyPrefix);
+                missIds.add(remoteIds.get(i));
+            } else if (cached != NULL_VALUE) {
+                // 2.2 命中
+                cacheMetrics.hit(keyPrefix);
+                result.put(remoteIds.get(i), type.cast(cached));
+            } else {
+                // 2.3 命中空值的直接跳过
+                cacheMetrics.nullHit(keyPrefix);
+            }
+        }
+        if (missIds.isEmpty()) {
+            return sortByIds(ids, result);
+        }
+        // 3. 未命中的id一次性查库
+        Map<ID, R> loaded = loadFromDb(keyPrefix, missIds, dbFallback).stream().collect(Collectors.toMap(idGetter, Function.identity(), (a, b) -> a));
+        // 4. 通过一次pipeline写回redis，不存在的id写入空值
+        long seconds = unit.toSeconds(time);
+        long nullSeconds = TimeUnit.MINUTES.toSeconds(CACHE_NULL_TTL);
+        writeQuietly(() -> redisCircuitBreaker.execute(() -> stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (ID id : missIds) {
+                String key = keyPrefix + id;
+                R r = loaded.get(id);
+                if (null == r) {
+                    connection.setEx(toBytes(key), jitter(nullSeconds), EMPTY);
+                } else {
+                    connection.setEx(toBytes(key), jitter(seconds), cacheCodecs.encode(key, r));
+                }
+            }
+            return null;
+        })));
+        loaded.forEach((id, r) -> {
+            localCache.put(keyPrefix + id, r);
+            hotKeyDetector.offer(keyPrefix + id, r);
+        });
+        result.putAll(loaded);
+        return sortByIds(ids, result);
+    }
+
+    /**
+     * 按照请求的id顺序整理批量查询的结果
+     */
+    private <R, ID> Map<ID, R> sortByIds(Collection<ID> ids, Map<ID, R> found) {
+        Map<ID, R> sorted = new LinkedHashMap<>(found.size() * 2);
+        for (ID id : ids) {
+            R r = found.get(id);
+            if (null != r) {
+                sorted.put(id, r);
+            }
+        }
+        return sorted;
+    }
+
+    /**
+     * 以Hash的形式设置过期缓存，每个属性一个field，读取时可以只获取部分属性
+     *
+     * @param key   缓存的键
+     * @param value 缓存的值，为null时写入空值
+     * @param time  缓存的时间
+     * @param unit  缓存的时间单位
+     */
+    public void setAsHash(String key, Object value, Long time, TimeUnit unit) {
+        redisCircuitBreaker.execute(() -> stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            writeHash((StringRedisConnection) connection, key, value, time, unit);
+            return null;
+        }));
+    }
+
+    /**
+     * 通过一次pipeline以Hash的形式批量设置过期缓存
+     *
+     * @param keyPrefix 缓存key的前缀
+     * @param values    缓存的值
+     * @param idGetter  从对象中获取id的函数
+     * @param time      缓存的时间
+     * @param unit      缓存的时间单位
+     */
+    public <R> void setBatchAsHash(String keyPrefix, Collection<R> values, Function<R, ?> idGetter, Long time, TimeUnit unit) {
+        redisCircuitBreaker.execute(() -> stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (R value : values) {
+                writeHash((StringRedisConnection) connection, keyPrefix + idGetter.apply(value), value, time, unit);
+            }
+            return null;
+        }));
+    }
+
+    /**
+     * 读取以Hash形式保存的完整对象，使用空值解决缓存穿透
+     *
+     * @param keyPrefix  缓存key的前缀
+     * @param id         缓存key的id
+     * @param type       缓存的类型
+     * @param dbFallback 回调函数：根据id查询数据库的函数
+     * @param time       缓存过期时间
+     * @param unit       缓存过期时间单位
+     * @return 返回查询结果，不存在时返回空
+     */
+    public <R, ID> R queryHashWithPassThrough(String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        return queryHashFields(keyPrefix, id, type, dbFallback, time, unit);
+    }
+
+    /**
+     * 读取以Hash形式保存的对象的部分属性（投影），使用空值解决缓存穿透
+     * <p>
+     * 命中时只通过HMGET获取所需的属性；未命中时查库并写入完整的Hash
+     *
+     * @param keyPrefix  缓存key的前缀
+     * @param id         缓存key的id
+     * @param type       缓存的类型
+     * @param dbFallback 回调函数：根据id查询数据库的函数
+     * @param time       缓存过期时间
+     * @param unit       缓存过期时间单位
+     * @param fields     需要的属性，为空时读取完整的对象
+     * @return 只包含所需属性的对象，不存在时返回空
+     */
+    public <R, ID> R queryHashFields(String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit, String... fields) {
+        String key = keyPrefix + id;
+        boolean whole = fields.length == 0;
+        // 0.1 布隆过滤器拦截不可能存在的id
+        if (!bloomFilterRegistry.mightContain(keyPrefix, id)) {
+            cacheMetrics.bloomReject(keyPrefix);
+            return null;
+        }
+        // 0.2 本地缓存中有完整对象时直接投影
+        R local = localCache.get(key, type);
+        if (null != local) {
+            cacheMetrics.localHit(keyPrefix);
+            return whole ? local : HashCacheCodec.project(local, fields);
+        }
+        // 1. 从redis读取所需的属性，redis不可用时降级查库
+        Object cached;
+        try {
+            cached = whole
+                    ? readHash(key, redisCircuitBreaker.execute(() -> stringRedisTemplate.<String, String>opsForHash().entries(key)), type)
+                    : readHashFields(fields, redisCircuitBreaker.execute(() -> stringRedisTemplate.<String, String>opsForHash().multiGet(key, Arrays.asList(withMarker(fields)))), type);
+        } catch (RedisUnavailableException e) {
+            R r = loadDegraded(keyPrefix, id, type, dbFallback);
+            return null == r || whole ? r : HashCacheCodec.project(r, fields);
+        }
+        // 2. 判断是否存在
+        if (cached == NULL_VALUE) {
+            cacheMetrics.nullHit(keyPrefix);
+            return null;
+        }
+        if (null != cached) {
+            cacheMetrics.hit(keyPrefix);
+            return type.cast(cached);
+        }
+        // 3. 不存在，查库并写入完整的Hash，不存在时写入空值
+        cacheMetrics.miss(keyPrefix);
+        R r = loadFromDb(keyPrefix, id, dbFallback);
+        writeQuietly(() -> setAsHash(key, r, time, unit));
+        if (null == r) {
+            return null;
+        }
+        localCache.put(key, r);
+        return whole ? r : HashCacheCodec.project(r, fields);
+    }
+
+    /**
+     * 批量读取以Hash形式保存的对象的部分属性（投影），使用空值解决缓存穿透
+     * <p>
+     * 一次pipeline对全部key执行HMGET，未命中的id一次性查库，查库结果（包括空值）通过一次pipeline写回redis
+     *
+     * @param keyPrefix  缓存key的前缀
+     * @param ids        缓存key的id集合
+     * @param type       缓存的类型
+     * @param dbFallback 回调函数：根据id集合批量查询数据库的函数，如 listByIds
+     * @param idGetter   从对象中获取id的函数
+     * @param time       缓存过期时间
+     * @param unit       缓存过期时间单位
+     * @param fields     需要的属性
+     * @return 按ids的顺序返回id到投影的映射，不存在的id不会出现在结果中
+     */
+    public <R, ID> Map<ID, R> queryBatchHashFields(String keyPrefix, Collection<ID> ids, Class<R> type,
+                                                   Function<Collection<ID>, List<R>> dbFallback, Function<R, ID> idGetter,
+                                                   Long time, TimeUnit unit, String... fields) {
+        Map<ID, R> result = new LinkedHashMap<>();
+        // 1. 去重，并用布隆过滤器和本地缓存过滤
+        List<ID> remoteIds = new ArrayList<>();
+        for (ID id : new LinkedHashSet<>(ids)) {
+            if (!bloomFilterRegistry.mightContain(keyPrefix, id)) {
+                cacheMetrics.bloomReject(keyPrefix);
+                continue;
+            }
+            R local = localCache.get(keyPrefix + id, type);
+            if (null != local) {
+                cacheMetrics.localHit(keyPrefix);
+                result.put(id, HashCacheCodec.project(local, fields));
+            } else {
+                remoteIds.add(id);
+            }
+        }
+        if (remoteIds.isEmpty()) {
+            return sortByIds(ids, result);
+        }
+        // 2. 一次pipeline从redis读取所需的属性，redis不可用时降级查库
+        String[] hashFields = withMarker(fields);
+        List<Object> values;
+        try {
+            values = redisCircuitBreaker.execute(() -> stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (ID id : remoteIds) {
+                    ((StringRedisConnection) connection).hMGet(keyPrefix + id, hashFields);
+                }
+                return null;
+            }));
+        } catch (RedisUnavailableException e) {
+            loadBatchDegraded(keyPrefix, remoteIds, dbFallback, idGetter)
+                    .forEach((id, r) -> result.put(id, HashCacheCodec.project(r, fields)));
+            return sortByIds(ids, result);
+        }
+        List<ID> missIds = new ArrayList<>();
+        for (int i = 0; i < remoteIds.size(); i++) {
+            @SuppressWarnings("unchecked")
+            Object cached = readHashFields(fields, (List<String>) values.get(i), type);
+            if (null == cached) {
+                // 2.1 未命中，需要查库
+                cacheMetrics.miss(keyPrefix);
+                missIds.add(remoteIds.get(i));
+            } else if (cached != NULL_VALUE) {
+                // 2.2 命中
+                cacheMetrics.hit(keyPrefix);
+                result.put(remoteIds.get(i), type.cast(cached));
+            } else {
+                // 2.3 命中空值的直接跳过
+                cacheMetrics.nullHit(keyPrefix);
+            }
+        }
+        if (missIds.isEmpty()) {
+            return sortByIds(ids, result);
+        }
+        // 3. 未命中的id一次性查库
+        Map<ID, R> loaded = loadFromDb(keyPrefix, missIds, dbFallback).stream()
+                .collect(Collectors.toMap(idGetter, Function.identity(), (a, b) -> a));
+        // 4. 通过一次pipeline写回完整的Hash，不存在的id写入空值
+        writeQuietly(() -> redisCircuitBreaker.execute(() -> stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (ID id : missIds) {
+                writeHash((StringRedisConnection) connection, keyPrefix + id, loaded.get(id), time, unit);
+            }
+            return null;
+        })));
+        loaded.forEach((id, r) -> {
+            localCache.put(keyPrefix + id, r);
+            result.put(id, HashCacheCodec.project(r, fields));
+        });
+        return sortByIds(ids, result);
+    }
+
+    /**
+     * 在pipeline中写入Hash：先删除旧的Hash，避免保留已变为null的属性
+     */
+    private void writeHash(StringRedisConnection connection, String key, Object value, Long time, TimeUnit unit) {
+        connection.del(key);
+        if (null == value) {
+            connection.hMSet(key, HashCacheCodec.nullValue());
+            connection.expire(key, jitter(TimeUnit.MINUTES.toSeconds(CACHE_NULL_TTL)));
+        } else {
+            connection.hMSet(key, HashCacheCodec.encode(value));
+            connection.expire(key, jitter(unit.toSeconds(time)));
+        }
+    }
+
+    /**
+     * 解析HGETALL读取的完整Hash，命中时写入本地缓存
+     *
+     * @return 命中返回对象；命中空值返回 {@link #NULL_VALUE}；未命中返回null
+     */
+    private Object readHash(String key, Map<String, String> hash, Class<?> type) {
+        String marker = hash.get(HashCacheCodec.MARKER);
+        if (null == marker) {
             return null;
         }
-        // 6. 存在，写入redis
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(r), time, unit);
+        if (HashCacheCodec.NULL_MARKER_VALUE.equals(marker)) {
+            return NULL_VALUE;
+        }
+        Object r = HashCacheCodec.decode(hash, type);
+        localCache.put(key, r);
         return r;
     }
 
     /**
-     * 使用线程池
+     * 解析HMGET读取的部分属性，最后一个值为标记field
+     *
+     * @return 命中返回投影；命中空值返回 {@link #NULL_VALUE}；未命中返回null
+     */
+    private Object readHashFields(String[] fields, List<String> values, Class<?> type) {
+        String marker = null == values ? null : values.get(fields.length);
+        if (null == marker) {
+            return null;
+        }
+        if (HashCacheCodec.NULL_MARKER_VALUE.equals(marker)) {
+            return NULL_VALUE;
+        }
+        Map<String, String> hash = new HashMap<>(fields.length * 2);
+        for (int i = 0; i < fields.length; i++) {
+            hash.put(fields[i], values.get(i));
+        }
+        return HashCacheCodec.decode(hash, type);
+    }
+
+    private static String[] withMarker(String[] fields) {
+        String[] hashFields = Arrays.copyOf(fields, fields.length + 1);
+        hashFields[fields.length] = HashCacheCodec.MARKER;
+        return hashFields;
+    }
+
+    /**
+     * 本节点内正在进行的缓存重建，key为缓存的键
      */
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
+    private static final Map<String, CompletableFuture<Object>> IN_FLIGHT_LOADS = new ConcurrentHashMap<>();
 
     /**
      * 利用互斥锁解决缓存击穿的逻辑
@@ -94,54 +632,163 @@ public class CacheUtils {
      */
     public <R, ID> R queryWithMutex(String keyPrefix, String lockKeyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
         String key = keyPrefix + id;
-        // 1. 从redis查询商铺缓存
-        String json = stringRedisTemplate.opsForValue().get(key);
-        // 2. 判断是否存在
-        if (StrUtil.isNotBlank(json)) {
-            // 3. 存在，直接返回
-            return JSONUtil.toBean(json, type);
+        // 0.1 布隆过滤器拦截不可能存在的id
+        if (!bloomFilterRegistry.mightContain(keyPrefix, id)) {
+            cacheMetrics.bloomReject(keyPrefix);
+            return null;
+        }
+        // 0.2 热点key优先使用本地副本
+        Object hot = hotKeyDetector.access(key);
+        if (type.isInstance(hot)) {
+            cacheMetrics.hotHit(keyPrefix);
+            return type.cast(hot);
+        }
+        // 0.3 再查本地缓存
+        R local = localCache.get(key, type);
+        if (null != local) {
+            cacheMetrics.localHit(keyPrefix);
+            hotKeyDetector.offer(key, local);
+            return local;
         }
-        // 判断命中的是否是空值
-        if (json != null) {
-            // 返回错误信息
+        // 1. 从redis查询商铺缓存，redis不可用时降级查库
+        Object cached;
+        try {
+            cached = readCache(key, getRaw(key), type);
+        } catch (RedisUnavailableException e) {
+            return loadDegraded(keyPrefix, id, type, dbFallback);
+        }
+        // 2. 判断是否存在
+        if (cached == NULL_VALUE) {
+            // 命中的是空值，返回错误信息
+            cacheMetrics.nullHit(keyPrefix);
             return null;
         }
+        if (null != cached) {
+            // 3. 存在，直接返回
+            cacheMetrics.hit(keyPrefix);
+            return type.cast(cached);
+        }
+        cacheMetrics.miss(keyPrefix);
 
-        // 4. 实现缓存重建
-        String lockKey = lockKeyPrefix + id;
-        R r;
+        // 4. 实现缓存重建，本节点内同一个key的并发请求共享同一次加载
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> inFlight = IN_FLIGHT_LOADS.putIfAbsent(key, future);
+        if (null != inFlight) {
+            // 4.1 已有线程在重建，等待其结果，重建完成后立即返回
+            return type.cast(awaitLoad(inFlight));
+        }
         try {
-            // 4.1 获取互斥锁
-            boolean isLock = this.lock(lockKey);
-            // 4.2 判断是否获取成功
-            if (!isLock) {
-                Thread.sleep(50);
-                queryWithMutex(keyPrefix, lockKeyPrefix, id, type, dbFallback, time, unit);
+            // 4.2 由本线程代表本节点获取互斥锁并重建，重建过程中redis不可用时降级查库
+            R r;
+            try {
+                r = loadWithMutex(keyPrefix, lockKeyPrefix + id, id, type, dbFallback, time, unit);
+            } catch (RedisUnavailableException e) {
+                r = loadDegraded(keyPrefix, id, type, dbFallback);
             }
-            // 4.4 获取锁成功
-            // 4.4.1 判断缓存中是否存在
-            json = stringRedisTemplate.opsForValue().get(key);
-            // 4.4.2 若缓存不存在，则根据id查库
-            if (StrUtil.isNotBlank(json)) {
-                r = JSONUtil.toBean(json, type);
-            } else {
-                r = dbFallback.apply(id);
+            future.complete(r);
+            // 7. 返回
+            return r;
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            IN_FLIGHT_LOADS.remove(key, future);
+        }
+    }
+
+    /**
+     * 获取互斥锁并重建缓存，获取锁失败说明其它节点正在重建，等待后重新查询缓存
+     *
+     * @return 返回重建或查询到的对象，不存在则返回null
+     */
+    private <R, ID> R loadWithMutex(String keyPrefix, String lockKey, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        String key = keyPrefix + id;
+        while (true) {
+            // 1. 获取互斥锁
+            if (this.lock(lockKey)) {
+                cacheMetrics.lockWin(keyPrefix);
+                try {
+                    // 2. 获取锁成功，再次判断缓存是否已经被重建
+                    Object cached = readCache(key, getRaw(key), type);
+                    if (null != cached) {
+                        return cached == NULL_VALUE ? null : type.cast(cached);
+                    }
+                    // 3. 根据id查库
+                    R r = loadFromDb(keyPrefix, id, dbFallback);
+                    // 4. 不存在，将空值写入redis
+                    if (null == r) {
+                        writeQuietly(() -> setRaw(key, EMPTY, jitter(TimeUnit.MINUTES.toSeconds(CACHE_NULL_TTL))));
+                    } else {
+                        // 5. 存在，写入redis和本地缓存
+                        writeQuietly(() -> set(key, r, time, unit));
+                        localCache.put(key, r);
+                        hotKeyDetector.offer(key, r);
+                    }
+                    // 6. 通知其它节点重建完成
+                    writeQuietly(() -> redisCircuitBreaker.run(() -> rebuildNotifier.publish(key)));
+                    return r;
+                } finally {
+                    this.unlock(lockKey);
+                }
             }
-            // 5. 不存在，返回错误
-            if (null == r) {
-                // 将空值写入redis
-                stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
-                return null;
+            // 7. 获取锁失败，等待其它节点重建完成后重新查询缓存
+            cacheMetrics.lockLoss(keyPrefix);
+            Object cached = readCache(key, waitForRebuild(key), type);
+            if (null != cached) {
+                return cached == NULL_VALUE ? null : type.cast(cached);
             }
-            // 6. 存在，写入redis
-            stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(r), time, unit);
+        }
+    }
+
+    /**
+     * 等待其它节点重建缓存，优先等待重建通知，未收到通知时退化为休眠轮询
+     *
+     * @param key 缓存的键
+     * @return 重新查询到的缓存，仍未重建时返回null
+     */
+    private byte[] waitForRebuild(String key) {
+        if (!rebuildNotifier.isEnabled()) {
+            sleep(50);
+            return getRaw(key);
+        }
+        // 先登记等待再查询，避免错过查询与等待之间发布的通知
+        CompletableFuture<Void> signal = rebuildNotifier.subscribe(key);
+        byte[] bytes = getRaw(key);
+        if (bytes != null) {
+            rebuildNotifier.unsubscribe(key, signal);
+            return bytes;
+        }
+        rebuildNotifier.await(key, signal);
+        return getRaw(key);
+    }
+
+    private void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             throw new RuntimeException(e);
-        } finally {
-            this.unlock(lockKey);
         }
-        // 7. 返回
-        return r;
+    }
+
+    /**
+     * 等待本节点内其它线程的重建结果
+     *
+     * @param future 正在进行的重建
+     * @return 重建得到的对象
+     */
+    private Object awaitLoad(CompletableFuture<Object> future) {
+        try {
+            return future.get(LOCK_SHOP_TTL, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof RuntimeException ? (RuntimeException) cause : new RuntimeException(cause);
+        } catch (TimeoutException e) {
+            throw new RuntimeException("等待缓存重建超时", e);
+        }
     }
 
 
@@ -153,48 +800,259 @@ public class CacheUtils {
      */
     public <R, ID> R queryWithLogicalExpire(String keyPrefix, String lockKeyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
         String key = keyPrefix + id;
-        // 1. 从redis查询缓存
-        String shopJson = stringRedisTemplate.opsForValue().get(key);
+        // 0. 热点key优先使用本地副本，副本过期后再查询redis判断是否需要重建
+        Object hot = hotKeyDetector.access(key);
+        if (type.isInstance(hot)) {
+            cacheMetrics.hotHit(keyPrefix);
+            return type.cast(hot);
+        }
+        // 1. 从redis查询缓存，redis不可用时降级查库
+        byte[] bytes;
+        try {
+            bytes = getRaw(key);
+        } catch (RedisUnavailableException e) {
+            return loadDegraded(keyPrefix, id, type, dbFallback);
+        }
         // 2. 判断是否存在
-        if (StrUtil.isBlank(shopJson)) {
+        if (null == bytes || bytes.length == 0) {
             // 3. 不存在直接返回null
+            cacheMetrics.miss(keyPrefix);
             return null;
         }
-        // 4. 命中，需要把json反序列化为对象
-        RedisData redisData = JSONUtil.toBean(shopJson, RedisData.class);
-        R r = JSONUtil.toBean((JSONObject) redisData.getData(), type);
+        // 4. 命中，需要反序列化为对象
+        RedisData redisData = cacheCodecs.decodeLogical(bytes, type);
+        if (null == redisData) {
+            // 无法解码，按已过期处理，同步重建
+            cacheMetrics.miss(keyPrefix);
+            return rebuildNow(keyPrefix, id, type, dbFallback, time, unit);
+        }
+        R r = type.cast(redisData.getData());
+        hotKeyDetector.offer(key, r);
         LocalDateTime expireTime = redisData.getExpireTime();
         // 5. 判断是否过期
         if (expireTime.isAfter(LocalDateTime.now())) {
             // 5.1 未过期，直接返回
+            cacheMetrics.hit(keyPrefix);
             return r;
+        }
+        // 5.2 已过期，获取互斥锁后开启独立线程重建缓存
+        cacheMetrics.staleHit(keyPrefix);
+        writeQuietly(() -> rebuildAsync(keyPrefix, lockKeyPrefix + id, id, type, expireTime, dbFallback, time, unit));
+        // 6. 返回过期的商铺信息
+        return r;
+    }
+
+    /**
+     * 逻辑过期 + 概率提前刷新（XFetch）解决缓存击穿
+     * <p>
+     * 距离逻辑过期时间越近、上次重建耗时越长，请求越可能提前触发重建，
+     * 使热点key的重建分散在过期之前，而不是集中在过期的那一刻
+     *
+     * @param id id
+     * @return 返回对象，缓存未预热时返回null
+     */
+    public <R, ID> R queryWithEarlyRefresh(String keyPrefix, String lockKeyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        String key = keyPrefix + id;
+        // 0. 热点key优先使用本地副本，副本过期后再查询redis判断是否需要重建
+        Object hot = hotKeyDetector.access(key);
+        if (type.isInstance(hot)) {
+            cacheMetrics.hotHit(keyPrefix);
+            return type.cast(hot);
+        }
+        // 1. 从redis查询缓存，redis不可用时降级查库
+        byte[] bytes;
+        try {
+            bytes = getRaw(key);
+        } catch (RedisUnavailableException e) {
+            return loadDegraded(keyPrefix, id, type, dbFallback);
+        }
+        // 2. 不存在直接返回null
+        if (null == bytes || bytes.length == 0) {
+            cacheMetrics.miss(keyPrefix);
+            return null;
+        }
+        // 3. 命中，反序列化
+        RedisData redisData = cacheCodecs.decodeLogical(bytes, type);
+        if (null == redisData) {
+            // 无法解码，按已过期处理，同步重建
+            cacheMetrics.miss(keyPrefix);
+            return rebuildNow(keyPrefix, id, type, dbFallback, time, unit);
+        }
+        R r = type.cast(redisData.getData());
+        hotKeyDetector.offer(key, r);
+        // 4. 判断是否需要提前重建：now - delta * beta * ln(rand) >= expireTime
+        long expireAt = redisData.getExpireTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        long delta = null == redisData.getDelta() ? 0L : redisData.getDelta();
+        double gap = -delta * earlyRefreshBeta * Math.log(1 - ThreadLocalRandom.current().nextDouble());
+        long now = System.currentTimeMillis();
+        if (now >= expireAt) {
+            cacheMetrics.staleHit(keyPrefix);
         } else {
-            // 5.2 已过期，缓存重建
-            // 6. 缓存重建
-            // 6.1 获取互斥锁
-            String lockKey = lockKeyPrefix + id;
-            boolean isLock = lock(lockKey);
-            if (isLock) {
-                // 6.2 再次检验是否被更新
-                if (!expireTime.isAfter(LocalDateTime.now())) {
-                    // 6.3 获取锁成功且缓存依旧不存在，开启独立线程，实现缓存重建
-                    CACHE_REBUILD_EXECUTOR.submit(() -> {
-                        try {
-                            R r1 = dbFallback.apply(id);
-                            this.setWithLogicalExpire(key, r1, time, unit);
-                        } catch (Exception e) {
-                            throw new RuntimeException(e);
-                        } finally {
-                            unlock(lockKey);
-                        }
-                    });
-                }
+            cacheMetrics.hit(keyPrefix);
+        }
+        if (now + gap >= expireAt) {
+            // 4.1 需要重建，获取互斥锁后开启独立线程重建缓存
+            writeQuietly(() -> rebuildAsync(keyPrefix, lockKeyPrefix + id, id, type, redisData.getExpireTime(), dbFallback, time, unit));
+        }
+        // 5. 返回缓存中的数据
+        return r;
+    }
+
+    /**
+     * 获取互斥锁，成功后开启独立线程重建逻辑过期缓存，并记录本次重建耗时
+     *
+     * @param keyPrefix  缓存key的前缀
+     * @param lockKey    互斥锁的键
+     * @param expireTime 调用方读取到的逻辑过期时间，获取锁后缓存的过期时间已晚于它时说明已被重建
+     */
+    private <R, ID> void rebuildAsync(String keyPrefix, String lockKey, ID id, Class<R> type, LocalDateTime expireTime,
+                                      Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        String key = keyPrefix + id;
+        // 本节点已有该key的重建在排队或执行，无需再竞争互斥锁
+        if (rebuildScheduler.isPending(key)) {
+            cacheMetrics.rebuildDeduplicated(keyPrefix);
+            return;
+        }
+        if (!lock(lockKey)) {
+            cacheMetrics.lockLoss(keyPrefix);
+            return;
+        }
+        cacheMetrics.lockWin(keyPrefix);
+        // 获取锁后再次检查缓存，其它节点在本次读取之后刚完成重建时无需再查库
+        boolean rebuilt;
+        try {
+            rebuilt = isRebuilt(key, type, expireTime);
+        } catch (RuntimeException e) {
+            unlock(lockKey);
+            throw e;
+        }
+        if (rebuilt) {
+            cacheMetrics.rebuildDeduplicated(keyPrefix);
+            unlock(lockKey);
+            return;
+        }
+        boolean accepted = rebuildScheduler.submit(keyPrefix, key, () -> {
+            try {
+                long begin = System.currentTimeMillis();
+                R r = loadFromDb(keyPrefix, id, dbFallback);
+                this.setWithLogicalExpire(key, r, time, unit, System.currentTimeMillis() - begin);
+            } finally {
+                unlock(lockKey);
             }
+        });
+        if (!accepted) {
+            // 重建被拒绝，释放锁让其它节点或之后的请求重试，本次继续返回旧数据
+            unlock(lockKey);
+        }
+    }
+
+    /**
+     * 缓存的逻辑过期时间是否已晚于调用方读取到的过期时间，即已被其它线程或节点重建
+     */
+    private boolean isRebuilt(String key, Class<?> type, LocalDateTime expireTime) {
+        byte[] bytes = getRaw(key);
+        if (null == bytes || bytes.length == 0) {
+            return false;
+        }
+        RedisData current = cacheCodecs.decodeLogical(bytes, type);
+        return null != current && current.getExpireTime().isAfter(expireTime);
+    }
+
+    /**
+     * 同步重建逻辑过期缓存，用于缓存格式无法解码（如实体结构变化）的情况
+     *
+     * @return 返回查库得到的对象
+     */
+    private <R, ID> R rebuildNow(String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        long begin = System.currentTimeMillis();
+        R r = loadFromDb(keyPrefix, id, dbFallback);
+        if (null != r) {
+            long delta = System.currentTimeMillis() - begin;
+            writeQuietly(() -> this.setWithLogicalExpire(keyPrefix + id, r, time, unit, delta));
+        }
+        return type.cast(r);
+    }
+
+    /**
+     * 查库并记录重建次数及耗时
+     *
+     * @param keyPrefix  缓存key的前缀
+     * @param arg        查库的参数
+     * @param dbFallback 查库的函数
+     * @return 查库的结果
+     */
+    private <T, R> R loadFromDb(String keyPrefix, T arg, Function<T, R> dbFallback) {
+        long begin = System.currentTimeMillis();
+        boolean success = false;
+        try {
+            R r = dbFallback.apply(arg);
+            success = true;
+            return r;
+        } finally {
+            cacheMetrics.rebuild(keyPrefix, System.currentTimeMillis() - begin, success);
+        }
+    }
+
+    /**
+     * Redis不可用时的降级查询：先查本地缓存，未命中时查库，同时查库的数量受限于每个前缀的许可
+     *
+     * @return 查询结果，不存在返回null
+     * @throws ServiceDegradedException 超出降级查库的并发限制
+     */
+    private <R, ID> R loadDegraded(String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback) {
+        String key = keyPrefix + id;
+        R local = localCache.get(key, type);
+        if (null != local) {
+            cacheMetrics.localHit(keyPrefix);
+            return local;
+        }
+        R r = withDegradedPermit(keyPrefix, () -> loadFromDb(keyPrefix, id, dbFallback));
+        if (null != r) {
+            localCache.put(key, r);
         }
-        // 6.4 返回过期的商铺信息
         return r;
     }
 
+    /**
+     * Redis不可用时的降级批量查库，调用方已经过滤掉本地缓存命中的id
+     *
+     * @return id -> 对象，不存在的id不会出现在结果中
+     */
+    private <R, ID> Map<ID, R> loadBatchDegraded(String keyPrefix, List<ID> ids, Function<Collection<ID>, List<R>> dbFallback, Function<R, ID> idGetter) {
+        Map<ID, R> loaded = withDegradedPermit(keyPrefix, () -> loadFromDb(keyPrefix, ids, dbFallback).stream()
+                .collect(Collectors.toMap(idGetter, Function.identity(), (a, b) -> a)));
+        loaded.forEach((id, r) -> localCache.put(keyPrefix + id, r));
+        return loaded;
+    }
+
+    /**
+     * 获取降级查库的许可后执行，获取不到时快速失败，避免Redis不可用时全部流量压到数据库
+     */
+    private <T> T withDegradedPermit(String keyPrefix, Supplier<T> load) {
+        Semaphore permits = degradedPermits.computeIfAbsent(keyPrefix, k -> new Semaphore(degradedDbConcurrency));
+        if (!permits.tryAcquire()) {
+            cacheMetrics.shed(keyPrefix);
+            throw new ServiceDegradedException("服务繁忙，请稍后再试");
+        }
+        try {
+            cacheMetrics.degradedLoad(keyPrefix);
+            return load.get();
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * 查询后回写redis，redis不可用时放弃回写，不影响本次查询的结果
+     */
+    private void writeQuietly(Runnable write) {
+        try {
+            write.run();
+        } catch (RedisUnavailableException e) {
+            log.debug("Redis不可用，跳过缓存写入：{}", e.getMessage());
+        }
+    }
+
     /**
      * 设置逻辑过期缓存
      *
@@ -202,12 +1060,81 @@ public class CacheUtils {
      * @param value 缓存的值
      * @param time  缓存的有效时间
      * @param unit  缓存的有效时间单位
+     * @param delta 本次重建的耗时（毫秒）
      */
-    private void setWithLogicalExpire(String key, Object value, Long time, TimeUnit unit) {
+    private void setWithLogicalExpire(String key, Object value, Long time, TimeUnit unit, long delta) {
         RedisData redisData = new RedisData();
         redisData.setData(value);
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(unit.toSeconds(time)));
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(redisData));
+        redisData.setExpireTime(LocalDateTime.now().plusSeconds(jitter(unit.toSeconds(time))));
+        redisData.setDelta(delta);
+        setRaw(key, cacheCodecs.encodeLogical(key, redisData), 0L);
+    }
+
+    /**
+     * 解析从redis读取的缓存，命中时写入本地缓存和热点key副本
+     *
+     * @param key   缓存的键
+     * @param bytes 从redis读取的字节
+     * @param type  缓存的类型
+     * @return 命中返回对象；命中空值返回 {@link #NULL_VALUE}；未命中或无法解码返回null
+     */
+    private Object readCache(String key, byte[] bytes, Class<?> type) {
+        if (null == bytes) {
+            return null;
+        }
+        if (bytes.length == 0) {
+            return NULL_VALUE;
+        }
+        Object r = cacheCodecs.decode(bytes, type);
+        if (null != r) {
+            localCache.put(key, r);
+            hotKeyDetector.offer(key, r);
+        }
+        return r;
+    }
+
+    /**
+     * 读取缓存的原始字节
+     *
+     * @param key 缓存的键
+     * @return 不存在返回null，空值返回长度为0的数组
+     */
+    private byte[] getRaw(String key) {
+        return redisCircuitBreaker.execute(() ->
+                stringRedisTemplate.execute((RedisCallback<byte[]>) connection -> connection.get(toBytes(key))));
+    }
+
+    /**
+     * 写入缓存的原始字节
+     *
+     * @param key     缓存的键
+     * @param value   缓存的字节
+     * @param seconds 过期时间（秒），小于等于0表示不过期
+     */
+    private void setRaw(String key, byte[] value, long seconds) {
+        redisCircuitBreaker.execute(() -> stringRedisTemplate.execute((RedisCallback<Object>) connection -> {
+            if (seconds > 0) {
+                connection.setEx(toBytes(key), seconds, value);
+            } else {
+                connection.set(toBytes(key), value);
+            }
+            return null;
+        }));
+    }
+
+    /**
+     * 为过期时间加上随机抖动
+     *
+     * @param seconds 过期时间（秒）
+     * @return 抖动后的过期时间（秒），位于 [seconds, seconds * (1 + ttlJitter)] 之间
+     */
+    private long jitter(long seconds) {
+        long bound = (long) (seconds * ttlJitter);
+        return bound <= 0 ? seconds : seconds + ThreadLocalRandom.current().nextLong(bound + 1);
+    }
+
+    private static byte[] toBytes(String key) {
+        return key.getBytes(StandardCharsets.UTF_8);
     }
 
 
@@ -218,17 +1145,18 @@ public class CacheUtils {
      * @return 若成功添加，即redis中不存在该键，则返回true
      */
     private boolean lock(String key) {
-        Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(key, "1", LOCK_SHOP_TTL, TimeUnit.SECONDS);
+        Boolean flag = redisCircuitBreaker.execute(() ->
+                stringRedisTemplate.opsForValue().setIfAbsent(key, "1", LOCK_SHOP_TTL, TimeUnit.SECONDS));
         return BooleanUtil.isTrue(flag);
     }
 
     /**
-     * 释放锁，删除键
+     * 释放锁，删除键；redis不可用时无法删除，由锁的过期时间兜底
      *
      * @param key 键
      */
     private void unlock(String key) {
-        stringRedisTemplate.delete(key);
+        writeQuietly(() -> redisCircuitBreaker.execute(() -> stringRedisTemplate.delete(key)));
     }
 
 
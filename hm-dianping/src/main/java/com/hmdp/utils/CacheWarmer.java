@@ -0,0 +1,276 @@
+package com.hmdp.utils;
+
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+
+/**
+ * 缓存预热
+ * <p>
+ * 各业务在启动时注册预热任务：分页从数据库加载数据的函数和批量写入Redis的函数。
+ * 预热时按任务依次分页加载，每页交给线程池通过一次pipeline写入，同时进行的写入不超过 parallelism 页，
+ * 使新节点或被清空的Redis在数秒内恢复到完全预热的状态
+ *
+ * @author zhinushannan
+ */
+@Slf4j
+@Component
+public class CacheWarmer implements ApplicationRunner {
+
+    /**
+     * 是否在应用启动时预热
+     */
+    @Value("${hmdp.cache.warm-up.on-startup:true}")
+    private boolean onStartup;
+
+    /**
+     * 每页加载的数量
+     */
+    @Value("${hmdp.cache.warm-up.page-size:500}")
+    private int pageSize;
+
+    /**
+     * 同时写入Redis的最大页数
+     */
+    @Value("${hmdp.cache.warm-up.parallelism:4}")
+    private int parallelism;
+
+    /**
+     * 预热任务名称 -> 预热任务
+     */
+    private final Map<String, Task<?>> tasks = new LinkedHashMap<>();
+
+    /**
+     * 是否正在预热
+     */
+    private final AtomicBoolean running = new AtomicBoolean(false);
+
+    /**
+     * 预热线程池：一个线程执行 warmUpAsync 提交的预热，其余线程写入，同时写入的页数由 parallelism 限制
+     */
+    private ExecutorService executor;
+
+    @PostConstruct
+    private void init() {
+        executor = Executors.newFixedThreadPool(parallelism + 1);
+    }
+
+    /**
+     * 注册预热任务
+     *
+     * @param name   任务名称，通常为缓存key的前缀
+     * @param loader 分页加载函数，参数为上一页的最后一条数据（第一页为null）和每页数量，返回的数据为空时结束
+     * @param writer 批量写入函数，一次写入一页数据
+     * @param limit  最多预热的数量
+     * @param <R>    数据类型
+     */
+    public synchronized <R> void register(String name, BiFunction<R, Integer, List<R>> loader, Consumer<List<R>> writer, long limit) {
+        tasks.put(name, new Task<>(name, loader, writer, limit));
+    }
+
+    public <R> void register(String name, BiFunction<R, Integer, List<R>> loader, Consumer<List<R>> writer) {
+        register(name, loader, writer, Long.MAX_VALUE);
+    }
+
+    /**
+     * 应用启动完成后预热全部缓存
+     */
+    @Override
+    public void run(ApplicationArguments args) {
+        if (onStartup) {
+            warmUp();
+        }
+    }
+
+    /**
+     * 在后台预热全部缓存
+     *
+     * @return 已经在预热时返回false
+     */
+    public boolean warmUpAsync() {
+        if (running.get()) {
+            return false;
+        }
+        executor.submit(this::warmUp);
+        return true;
+    }
+
+    /**
+     * 依次执行全部预热任务
+     */
+    public void warmUp() {
+        if (!running.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            List<Task<?>> snapshot;
+            synchronized (this) {
+                snapshot = new ArrayList<>(tasks.values());
+            }
+            snapshot.forEach(Task::reset);
+            for (Task<?> task : snapshot) {
+                run(task);
+            }
+        } finally {
+            running.set(false);
+        }
+    }
+
+    /**
+     * 查询预热进度
+     *
+     * @return 任务名称 -> 进度
+     */
+    public synchronized Map<String, Progress> progress() {
+        Map<String, Progress> result = new LinkedHashMap<>();
+        tasks.forEach((name, task) -> result.put(name, task.progress()));
+        return result;
+    }
+
+    private <R> void run(Task<R> task) {
+        task.startedAt.set(System.currentTimeMillis());
+        task.status.set(Status.RUNNING);
+        Semaphore permits = new Semaphore(parallelism);
+        try {
+            R last = null;
+            while (task.loaded.get() < task.limit) {
+                // 1. 加载下一页
+                int size = (int) Math.min(pageSize, task.limit - task.loaded.get());
+                List<R> page = task.loader.apply(last, size);
+                if (null == page || page.isEmpty()) {
+                    break;
+                }
+                task.loaded.addAndGet(page.size());
+                last = page.get(page.size() - 1);
+                // 2. 获取许可后交给线程池写入，同时写入的页数达到上限时阻塞加载
+                permits.acquire();
+                executor.submit(() -> {
+                    try {
+                        task.writer.accept(page);
+                        task.written.addAndGet(page.size());
+                    } catch (Exception e) {
+                        log.error("缓存预热写入失败：{}", task.name, e);
+                        task.error.compareAndSet(null, e.getMessage());
+                    } finally {
+                        permits.release();
+                    }
+                });
+                if (page.size() < size) {
+                    break;
+                }
+            }
+            // 3. 等待全部写入完成
+            permits.acquire(parallelism);
+            permits.release(parallelism);
+            task.status.set(null == task.error.get() ? Status.DONE : Status.FAILED);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            task.error.compareAndSet(null, "预热被中断");
+            task.status.set(Status.FAILED);
+        } catch (Exception e) {
+            log.error("缓存预热加载失败：{}", task.name, e);
+            task.error.compareAndSet(null, e.getMessage());
+            task.status.set(Status.FAILED);
+        } finally {
+            task.elapsed.set(System.currentTimeMillis() - task.startedAt.get());
+            log.info("缓存预热{}：{}，加载{}条，写入{}条，耗时{}ms",
+                    task.status.get() == Status.DONE ? "完成" : "失败", task.name,
+                    task.loaded.get(), task.written.get(), task.elapsed.get());
+        }
+    }
+
+    @PreDestroy
+    private void destroy() {
+        executor.shutdownNow();
+    }
+
+    public enum Status {
+        /**
+         * 等待预热
+         */
+        PENDING,
+        /**
+         * 正在预热
+         */
+        RUNNING,
+        /**
+         * 预热完成
+         */
+        DONE,
+        /**
+         * 预热失败
+         */
+        FAILED
+    }
+
+    /**
+     * 预热任务的进度
+     */
+    @Data
+    public static class Progress {
+        private Status status;
+        private Long loaded;
+        private Long written;
+        private Long elapsed;
+        private String error;
+    }
+
+    private static class Task<R> {
+        private final String name;
+        private final BiFunction<R, Integer, List<R>> loader;
+        private final Consumer<List<R>> writer;
+        private final long limit;
+        private final AtomicReference<Status> status = new AtomicReference<>(Status.PENDING);
+        private final AtomicLong loaded = new AtomicLong();
+        private final AtomicLong written = new AtomicLong();
+        private final AtomicLong startedAt = new AtomicLong();
+        private final AtomicLong elapsed = new AtomicLong();
+        private final AtomicReference<String> error = new AtomicReference<>();
+
+        Task(String name, BiFunction<R, Integer, List<R>> loader, Consumer<List<R>> writer, long limit) {
+            this.name = name;
+            this.loader = loader;
+            this.writer = writer;
+            this.limit = limit;
+        }
+
+        void reset() {
+            status.set(Status.PENDING);
+            loaded.set(0);
+            written.set(0);
+            startedAt.set(0);
+            elapsed.set(0);
+            error.set(null);
+        }
+
+        Progress progress() {
+            Progress progress = new Progress();
+            Status current = status.get();
+            progress.setStatus(current);
+            progress.setLoaded(loaded.get());
+            progress.setWritten(written.get());
+            progress.setElapsed(current == Status.RUNNING ? System.currentTimeMillis() - startedAt.get() : elapsed.get());
+            progress.setError(error.get());
+            return progress;
+        }
+    }
+
+}
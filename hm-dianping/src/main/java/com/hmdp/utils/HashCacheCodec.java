@@ -0,0 +1,123 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.convert.Convert;
+import cn.hutool.core.date.LocalDateTimeUtil;
+import cn.hutool.core.util.ReflectUtil;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * 以Redis Hash保存对象时的编解码器，每个属性一个field
+ * <p>
+ * 数值和字符串直接保存为字符串，LocalDateTime保存为毫秒时间戳，值为null的属性不保存；
+ * 每个Hash都带有标记field {@link #MARKER}，值为1表示对象、0表示空值，据此区分未命中和所选属性恰好都为null
+ *
+ * @author zhinushannan
+ */
+public class HashCacheCodec {
+
+    /**
+     * 标记field
+     */
+    public static final String MARKER = "_";
+
+    public static final String MARKER_VALUE = "1";
+
+    public static final String NULL_MARKER_VALUE = "0";
+
+    /**
+     * 类 -> 属性名 -> 属性
+     */
+    private static final Map<Class<?>, Map<String, Field>> FIELDS = new ConcurrentHashMap<>();
+
+    private HashCacheCodec() {
+    }
+
+    /**
+     * 把对象编码为Hash的全部field
+     *
+     * @param value 对象
+     * @return field -> 值
+     */
+    public static Map<String, String> encode(Object value) {
+        Map<String, String> hash = new HashMap<>();
+        fieldsOf(value.getClass()).forEach((name, field) -> {
+            Object v = ReflectUtil.getFieldValue(value, field);
+            if (null != v) {
+                hash.put(name, v instanceof LocalDateTime
+                        ? String.valueOf(LocalDateTimeUtil.toEpochMilli((LocalDateTime) v))
+                        : v.toString());
+            }
+        });
+        hash.put(MARKER, MARKER_VALUE);
+        return hash;
+    }
+
+    /**
+     * 空值对应的Hash
+     */
+    public static Map<String, String> nullValue() {
+        return Collections.singletonMap(MARKER, NULL_MARKER_VALUE);
+    }
+
+    /**
+     * 把Hash中的field解码为对象，不存在的属性保持为null
+     *
+     * @param hash field -> 值，不包含的field不会被设置
+     * @param type 对象类型
+     * @return 对象
+     */
+    public static <T> T decode(Map<String, String> hash, Class<T> type) {
+        Map<String, Field> fields = fieldsOf(type);
+        T obj = ReflectUtil.newInstance(type);
+        hash.forEach((name, v) -> {
+            Field field = fields.get(name);
+            // 忽略标记field，以及类结构变化后已不存在的属性
+            if (null == field || null == v) {
+                return;
+            }
+            Object value = field.getType() == LocalDateTime.class
+                    ? LocalDateTimeUtil.of(Long.parseLong(v))
+                    : Convert.convert(field.getGenericType(), v);
+            ReflectUtil.setFieldValue(obj, field, value);
+        });
+        return obj;
+    }
+
+    /**
+     * 复制对象中的部分属性，得到投影
+     *
+     * @param value  完整的对象
+     * @param fields 需要的属性
+     * @return 只包含所需属性的新对象
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T project(T value, String... fields) {
+        Map<String, Field> all = fieldsOf(value.getClass());
+        T obj = (T) ReflectUtil.newInstance(value.getClass());
+        for (String name : fields) {
+            Field field = all.get(name);
+            if (null != field) {
+                ReflectUtil.setFieldValue(obj, field, ReflectUtil.getFieldValue(value, field));
+            }
+        }
+        return obj;
+    }
+
+    private static Map<String, Field> fieldsOf(Class<?> type) {
+        return FIELDS.computeIfAbsent(type, t -> Arrays.stream(ReflectUtil.getFields(t))
+                .filter(f -> !Modifier.isStatic(f.getModifiers()) && !Modifier.isTransient(f.getModifiers()))
+                .collect(Collectors.toMap(Field::getName, Function.identity(), (a, b) -> a, LinkedHashMap::new)));
+    }
+
+}
@@ -0,0 +1,247 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.hash.MurmurHash;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static com.hmdp.utils.RedisConstants.CACHE_INVALIDATE_CHANNEL;
+
+/**
+ * 热点key探测器
+ * <p>
+ * 使用按时间分片的Count-Min Sketch统计滑动窗口内每个key的访问次数，窗口内访问次数超过阈值的key被晋升为热点key，
+ * 各节点在本地保存其短期副本，避免同一个key的请求全部打到Redis的同一个分片上；
+ * 访问次数降到阈值的一半以下时降级。副本存活时间很短，并随缓存失效通知一起删除
+ *
+ * @author zhinushannan
+ */
+@Slf4j
+@Component
+public class HotKeyDetector implements MessageListener {
+
+    /**
+     * Count-Min Sketch的行数，即哈希函数的个数
+     */
+    private static final int DEPTH = 4;
+
+    /**
+     * 是否启用热点key探测
+     */
+    @Value("${hmdp.cache.hot-key.enabled:true}")
+    private boolean enabled;
+
+    /**
+     * 滑动窗口内访问次数超过该值的key被认为是热点key
+     */
+    @Value("${hmdp.cache.hot-key.threshold:1000}")
+    private int threshold;
+
+    /**
+     * 滑动窗口的分片数，窗口长度为 slices * slice
+     */
+    @Value("${hmdp.cache.hot-key.slices:5}")
+    private int slices;
+
+    /**
+     * Count-Min Sketch每行的计数器个数，越大误差越小
+     */
+    @Value("${hmdp.cache.hot-key.width:4096}")
+    private int width;
+
+    /**
+     * 本地副本的存活时间（毫秒）
+     */
+    @Value("${hmdp.cache.hot-key.copy-ttl:1000}")
+    private long copyTtl;
+
+    /**
+     * 热点key的最大数量
+     */
+    @Value("${hmdp.cache.hot-key.max-keys:1000}")
+    private int maxKeys;
+
+    @Autowired
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    /**
+     * 每个时间分片一个计数矩阵，按 行 * width + 列 展开
+     */
+    private AtomicIntegerArray[] sketches;
+
+    /**
+     * 当前写入的分片
+     */
+    private volatile int current;
+
+    /**
+     * 热点key -> 热点信息
+     */
+    private final Map<String, HotKey> hotKeys = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    private void init() {
+        sketches = new AtomicIntegerArray[slices];
+        for (int i = 0; i < slices; i++) {
+            sketches[i] = new AtomicIntegerArray(DEPTH * width);
+        }
+        // 缓存失效时删除热点key的本地副本
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(CACHE_INVALIDATE_CHANNEL));
+    }
+
+    /**
+     * 记录一次访问，并返回该key的本地副本
+     *
+     * @param key 缓存的键
+     * @return 热点key且副本未过期时返回副本，否则返回null
+     */
+    public Object access(String key) {
+        if (!enabled) {
+            return null;
+        }
+        int[] indexes = indexes(key);
+        AtomicIntegerArray sketch = sketches[current];
+        for (int index : indexes) {
+            sketch.incrementAndGet(index);
+        }
+        HotKey hotKey = hotKeys.get(key);
+        if (null != hotKey) {
+            return hotKey.copy();
+        }
+        // 非热点key，估算窗口内的访问次数判断是否需要晋升
+        if (hotKeys.size() < maxKeys && estimate(indexes) >= threshold) {
+            hotKeys.computeIfAbsent(key, k -> {
+                log.info("晋升热点key：{}", k);
+                return new HotKey();
+            });
+        }
+        return null;
+    }
+
+    /**
+     * 从Redis或数据库读到值后调用，是热点key时保存本地副本
+     *
+     * @param key   缓存的键
+     * @param value 缓存的值
+     */
+    public void offer(String key, Object value) {
+        HotKey hotKey = hotKeys.get(key);
+        if (null != hotKey && null != value) {
+            hotKey.value = value;
+            hotKey.expireAt = System.currentTimeMillis() + copyTtl;
+        }
+    }
+
+    /**
+     * 获取当前的热点key
+     *
+     * @return 按窗口内访问次数降序排列的热点key
+     */
+    public List<Map<String, Object>> hotKeys() {
+        List<Map<String, Object>> result = new ArrayList<>();
+        hotKeys.forEach((key, hotKey) -> {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("key", key);
+            map.put("estimate", estimate(indexes(key)));
+            map.put("promotedAt", hotKey.promotedAt);
+            map.put("hasCopy", null != hotKey.copy());
+            result.add(map);
+        });
+        result.sort(Comparator.comparing(m -> -((Integer) m.get("estimate"))));
+        return result;
+    }
+
+    /**
+     * 滑动窗口前进一个分片：清空最旧的分片作为新的当前分片，并降级访问量下降的热点key
+     */
+    @Scheduled(fixedDelayString = "${hmdp.cache.hot-key.slice:1000}")
+    public void rotate() {
+        if (!enabled) {
+            return;
+        }
+        int next = (current + 1) % slices;
+        AtomicIntegerArray sketch = sketches[next];
+        for (int i = 0; i < sketch.length(); i++) {
+            sketch.set(i, 0);
+        }
+        current = next;
+        // 访问次数降到阈值一半以下的降级，避免在阈值附近反复晋升降级
+        hotKeys.keySet().removeIf(key -> {
+            boolean cooled = estimate(indexes(key)) < threshold / 2;
+            if (cooled) {
+                log.info("降级热点key：{}", key);
+            }
+            return cooled;
+        });
+    }
+
+    /**
+     * 收到缓存失效通知，删除本地副本但保留热点标记
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        HotKey hotKey = hotKeys.get(new String(message.getBody(), StandardCharsets.UTF_8));
+        if (null != hotKey) {
+            hotKey.value = null;
+        }
+    }
+
+    /**
+     * 估算窗口内的访问次数：每行对所有分片求和，再取各行的最小值
+     */
+    private int estimate(int[] indexes) {
+        int min = Integer.MAX_VALUE;
+        for (int index : indexes) {
+            int sum = 0;
+            for (AtomicIntegerArray sketch : sketches) {
+                sum += sketch.get(index);
+            }
+            min = Math.min(min, sum);
+        }
+        return min;
+    }
+
+    /**
+     * 使用双重哈希计算key在每一行中的位置
+     */
+    private int[] indexes(String key) {
+        long[] hash = MurmurHash.hash128(key.getBytes(StandardCharsets.UTF_8));
+        int[] indexes = new int[DEPTH];
+        for (int i = 0; i < DEPTH; i++) {
+            long combined = hash[0] + i * hash[1];
+            indexes[i] = i * width + (int) ((combined & Long.MAX_VALUE) % width);
+        }
+        return indexes;
+    }
+
+    /**
+     * 热点key的本地副本
+     */
+    private static class HotKey {
+        private final long promotedAt = System.currentTimeMillis();
+        private volatile Object value;
+        private volatile long expireAt;
+
+        Object copy() {
+            Object v = value;
+            return null != v && System.currentTimeMillis() < expireAt ? v : null;
+        }
+    }
+
+}
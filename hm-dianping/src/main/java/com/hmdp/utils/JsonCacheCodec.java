@@ -0,0 +1,44 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+
+/**
+ * 基于Hutool JSON的编解码器，与引入编解码器之前写入的缓存格式完全一致
+ *
+ * @author zhinushannan
+ */
+public class JsonCacheCodec implements CacheCodec {
+
+    @Override
+    public byte[] encode(Object value) {
+        return JSONUtil.toJsonStr(value).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public <T> T decode(byte[] bytes, Class<T> type) {
+        return JSONUtil.toBean(new String(bytes, StandardCharsets.UTF_8), type);
+    }
+
+    @Override
+    public byte[] encodeLogical(RedisData redisData) {
+        return JSONUtil.toJsonStr(redisData).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public RedisData decodeLogical(byte[] bytes, Class<?> type) {
+        // 只解析一次，直接从JSONObject中取出各个属性
+        JSONObject json = JSONUtil.parseObj(new String(bytes, StandardCharsets.UTF_8));
+        RedisData redisData = new RedisData();
+        redisData.setExpireTime(json.get("expireTime", LocalDateTime.class));
+        redisData.setDelta(json.getLong("delta"));
+        // 实体类型的数据为JSONObject，空值和非实体类型直接按类型转换
+        Object data = json.get("data");
+        redisData.setData(data instanceof JSONObject ? ((JSONObject) data).toBean(type) : json.get("data", type));
+        return redisData;
+    }
+
+}
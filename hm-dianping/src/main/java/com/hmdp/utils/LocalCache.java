@@ -0,0 +1,146 @@
+package com.hmdp.utils;
+
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+
+import static com.hmdp.utils.RedisConstants.CACHE_INVALIDATE_CHANNEL;
+
+/**
+ * 进程内的一级缓存，位于Redis缓存之前
+ * <p>
+ * 容量满时按LRU淘汰，每个条目最多存活 ttl 毫秒；缓存失效时通过Redis发布订阅通知所有节点，
+ * 即使通知丢失，各节点读到旧数据的时间也不会超过 ttl
+ *
+ * @author zhinushannan
+ */
+@Slf4j
+@Component
+public class LocalCache implements MessageListener {
+
+    /**
+     * 是否启用本地缓存
+     */
+    @Value("${hmdp.cache.local.enabled:true}")
+    private boolean enabled;
+
+    /**
+     * 本地缓存的最大条目数
+     */
+    @Value("${hmdp.cache.local.capacity:10000}")
+    private int capacity;
+
+    /**
+     * 本地缓存条目的存活时间（毫秒），即跨节点读到旧数据的最长时间
+     */
+    @Value("${hmdp.cache.local.ttl:5000}")
+    private long ttl;
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Autowired
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    private LRUCache<String, Object> cache;
+
+    @PostConstruct
+    private void init() {
+        cache = CacheUtil.newLRUCache(capacity, ttl);
+        // 订阅缓存失效频道
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(CACHE_INVALIDATE_CHANNEL));
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 从本地缓存中获取对象
+     *
+     * @param key  缓存的键
+     * @param type 缓存的类型
+     * @param <R>  对象类型
+     * @return 命中且类型匹配时返回对象，否则返回null
+     */
+    public <R> R get(String key, Class<R> type) {
+        if (!enabled) {
+            return null;
+        }
+        // 读取时不刷新访问时间，保证条目自写入起最多存活 ttl 毫秒
+        Object value = cache.get(key, false);
+        return type.isInstance(value) ? type.cast(value) : null;
+    }
+
+    /**
+     * 写入本地缓存
+     *
+     * @param key   缓存的键
+     * @param value 缓存的值
+     */
+    public void put(String key, Object value) {
+        if (!enabled || null == value) {
+            return;
+        }
+        cache.put(key, value);
+    }
+
+    /**
+     * 使缓存失效，删除本节点的条目并通知其它节点；Redis不可用时只删除本节点的条目，其它节点最多在 ttl 后失效
+     *
+     * @param key 缓存的键
+     */
+    public void invalidate(String key) {
+        cache.remove(key);
+        try {
+            stringRedisTemplate.convertAndSend(CACHE_INVALIDATE_CHANNEL, key);
+        } catch (DataAccessException e) {
+            log.warn("通知其它节点本地缓存失效失败：{}", key, e);
+        }
+    }
+
+    /**
+     * 批量使缓存失效，通过一次pipeline通知其它节点
+     *
+     * @param keys 缓存的键
+     */
+    public void invalidate(Collection<String> keys) {
+        keys.forEach(cache::remove);
+        try {
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                byte[] channel = CACHE_INVALIDATE_CHANNEL.getBytes(StandardCharsets.UTF_8);
+                for (String key : keys) {
+                    connection.publish(channel, key.getBytes(StandardCharsets.UTF_8));
+                }
+                return null;
+            });
+        } catch (DataAccessException e) {
+            log.warn("通知其它节点本地缓存失效失败：{}", keys, e);
+        }
+    }
+
+    /**
+     * 收到其它节点（包括本节点）的失效通知
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String key = new String(message.getBody(), StandardCharsets.UTF_8);
+        cache.remove(key);
+        log.debug("本地缓存失效：{}", key);
+    }
+
+}
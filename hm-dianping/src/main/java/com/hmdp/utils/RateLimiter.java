@@ -0,0 +1,85 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.Collections;
+
+import static com.hmdp.utils.RedisConstants.RATE_LIMIT_KEY;
+
+/**
+ * 基于Redis令牌桶的限流器，一次脚本调用完成补充和扣减令牌
+ * <p>
+ * Redis不可用时放行，不因为限流而拒绝正常请求
+ *
+ * @author zhinushannan
+ */
+@Slf4j
+@Component
+public class RateLimiter {
+
+    private static final String RATE_LIMIT_SCRIPT = "rate_limit";
+
+    /**
+     * 是否启用限流
+     */
+    @Value("${hmdp.rate-limit.enabled:true}")
+    private boolean enabled;
+
+    /**
+     * 获取客户端IP的请求头，如经过nginx转发时的X-Real-IP，为空时使用连接的地址；
+     * 只能在应用前有可信代理、且代理会覆盖或追加该请求头时配置，否则客户端可以伪造
+     */
+    @Value("${hmdp.rate-limit.ip-header:}")
+    private String ipHeader;
+
+    @Autowired
+    private RedisScriptRegistry scriptRegistry;
+
+    @Autowired
+    private RedisCircuitBreaker redisCircuitBreaker;
+
+    /**
+     * 从令牌桶中取一个令牌
+     *
+     * @param key      令牌桶的key，不含前缀
+     * @param rate     每秒补充的令牌数
+     * @param capacity 令牌桶的容量
+     * @return 0表示取到令牌，否则为需要等待的毫秒数
+     */
+    public long tryAcquire(String key, double rate, int capacity) {
+        if (!enabled) {
+            return 0;
+        }
+        try {
+            Long wait = redisCircuitBreaker.execute(() -> scriptRegistry.execute(RATE_LIMIT_SCRIPT,
+                    Collections.singletonList(RATE_LIMIT_KEY + key), String.valueOf(rate), String.valueOf(capacity), "1"));
+            return null == wait ? 0 : wait;
+        } catch (RedisUnavailableException e) {
+            log.debug("Redis不可用，跳过限流：{}", key);
+            return 0;
+        }
+    }
+
+    /**
+     * 客户端的IP
+     * <p>
+     * 请求头有多个值时（如X-Forwarded-For）取最后一个，即可信代理追加的对端地址；
+     * 前面的值由客户端提供，不能用于限流。推荐由代理设置只有一个值的X-Real-IP
+     */
+    public String clientIp(HttpServletRequest request) {
+        if (StrUtil.isNotBlank(ipHeader)) {
+            String ip = request.getHeader(ipHeader);
+            if (StrUtil.isNotBlank(ip)) {
+                // 取最后一个，即最近一级代理追加的地址
+                return StrUtil.trim(ip.substring(ip.lastIndexOf(',') + 1));
+            }
+        }
+        return request.getRemoteAddr();
+    }
+
+}
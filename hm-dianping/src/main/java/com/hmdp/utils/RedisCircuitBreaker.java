@@ -0,0 +1,195 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Redis熔断器
+ * <p>
+ * 连续失败（包括超过慢调用阈值的调用）达到阈值后打开，打开期间直接拒绝访问Redis；
+ * 打开 openDuration 毫秒后进入半开状态，只放行一个探测请求，探测成功则关闭，失败则重新打开
+ *
+ * @author zhinushannan
+ */
+@Slf4j
+@Component
+public class RedisCircuitBreaker {
+
+    public enum State {
+        /**
+         * 正常访问Redis
+         */
+        CLOSED,
+        /**
+         * 拒绝访问Redis
+         */
+        OPEN,
+        /**
+         * 放行一个探测请求
+         */
+        HALF_OPEN
+    }
+
+    /**
+     * 是否启用熔断器
+     */
+    @Value("${hmdp.redis.breaker.enabled:true}")
+    private boolean enabled;
+
+    /**
+     * 连续失败多少次后打开
+     */
+    @Value("${hmdp.redis.breaker.failure-threshold:5}")
+    private int failureThreshold;
+
+    /**
+     * 耗时超过该值（毫秒）的调用视为失败；无响应的调用由 spring.redis.timeout 终止后按失败计入
+     */
+    @Value("${hmdp.redis.breaker.slow-call-threshold:500}")
+    private long slowCallThreshold;
+
+    /**
+     * 打开后多久（毫秒）进入半开状态
+     */
+    @Value("${hmdp.redis.breaker.open-duration:5000}")
+    private long openDuration;
+
+    private final AtomicReference<State> state = new AtomicReference<>(State.CLOSED);
+
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+
+    private final AtomicBoolean probing = new AtomicBoolean(false);
+
+    private volatile long openedAt;
+
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder slowCalls = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder opened = new LongAdder();
+
+    /**
+     * 通过熔断器访问Redis
+     *
+     * @param call 访问Redis的操作
+     * @return 操作的结果
+     * @throws RedisUnavailableException 熔断器打开，或者访问Redis失败
+     */
+    public <T> T execute(Supplier<T> call) {
+        if (!enabled) {
+            return call.get();
+        }
+        boolean probe = acquire();
+        long begin = System.currentTimeMillis();
+        try {
+            T result = call.get();
+            long elapsed = System.currentTimeMillis() - begin;
+            if (elapsed > slowCallThreshold) {
+                slowCalls.increment();
+                onFailure(probe);
+            } else {
+                onSuccess(probe);
+            }
+            return result;
+        } catch (DataAccessException e) {
+            onFailure(probe);
+            throw new RedisUnavailableException("访问Redis失败", e);
+        } catch (RuntimeException e) {
+            // 与Redis可用性无关的异常，如编解码失败，不计入失败
+            if (probe) {
+                probing.set(false);
+            }
+            throw e;
+        } finally {
+            calls.increment();
+        }
+    }
+
+    public void run(Runnable call) {
+        execute(() -> {
+            call.run();
+            return null;
+        });
+    }
+
+    public State getState() {
+        return state.get();
+    }
+
+    /**
+     * 查询熔断器的状态和计数
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("enabled", enabled);
+        map.put("state", state.get());
+        map.put("consecutiveFailures", consecutiveFailures.get());
+        map.put("calls", calls.sum());
+        map.put("failures", failures.sum());
+        map.put("slowCalls", slowCalls.sum());
+        map.put("rejected", rejected.sum());
+        map.put("opened", opened.sum());
+        map.put("openedAt", openedAt);
+        return map;
+    }
+
+    /**
+     * 判断是否放行本次调用
+     *
+     * @return 本次调用是否为半开状态下的探测
+     */
+    private boolean acquire() {
+        State current = state.get();
+        if (current == State.CLOSED) {
+            return false;
+        }
+        // 打开状态到达探测时间后进入半开状态
+        if (current == State.OPEN && System.currentTimeMillis() - openedAt >= openDuration) {
+            state.compareAndSet(State.OPEN, State.HALF_OPEN);
+        }
+        // 半开状态只放行一个探测请求
+        if (state.get() == State.HALF_OPEN && probing.compareAndSet(false, true)) {
+            return true;
+        }
+        rejected.increment();
+        throw new RedisUnavailableException("Redis熔断中");
+    }
+
+    private void onSuccess(boolean probe) {
+        consecutiveFailures.set(0);
+        if (probe) {
+            state.set(State.CLOSED);
+            probing.set(false);
+            log.info("Redis熔断器关闭");
+        }
+    }
+
+    private void onFailure(boolean probe) {
+        failures.increment();
+        if (probe || consecutiveFailures.incrementAndGet() >= failureThreshold) {
+            open();
+            if (probe) {
+                probing.set(false);
+            }
+        }
+    }
+
+    private void open() {
+        openedAt = System.currentTimeMillis();
+        if (state.getAndSet(State.OPEN) != State.OPEN) {
+            opened.increment();
+            log.warn("Redis熔断器打开，{}ms后探测", openDuration);
+        }
+    }
+
+}
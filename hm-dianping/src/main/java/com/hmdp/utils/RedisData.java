@@ -7,5 +7,9 @@ import java.time.LocalDateTime;
 @Data
 public class RedisData {
     private LocalDateTime expireTime;
+    /**
+     * 上次重建缓存的耗时（毫秒），用于概率提前刷新
+     */
+    private Long delta;
     private Object data;
 }
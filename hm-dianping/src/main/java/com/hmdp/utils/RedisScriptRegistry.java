@@ -0,0 +1,250 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.io.FileUtil;
+import cn.hutool.core.io.IoUtil;
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.crypto.SecureUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lua脚本注册表
+ * <p>
+ * 启动时加载 resources/lua 下的全部脚本并通过 SCRIPT LOAD 预加载到Redis，执行时只发送SHA（EVALSHA）；
+ * Redis返回NOSCRIPT（重启、主从切换、SCRIPT FLUSH）时重新加载后重试一次，并定期检查脚本是否仍在Redis中。
+ * 配置了外部目录时可以从该目录热更新单个脚本，更新后版本号加一，之后的调用使用新的SHA
+ *
+ * @author zhinushannan
+ */
+@Slf4j
+@Component
+public class RedisScriptRegistry {
+
+    private static final String LOCATION = "classpath*:lua/*.lua";
+
+    private static final String SUFFIX = ".lua";
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 热更新脚本的外部目录，为空时只能从classpath重新加载
+     */
+    @Value("${hmdp.redis.scripts.reload-dir:}")
+    private String reloadDir;
+
+    /**
+     * 脚本名称（文件名去掉.lua） -> 脚本
+     */
+    private final Map<String, ScriptEntry> scripts = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    private void init() throws IOException {
+        // 1. 读取classpath中的全部脚本
+        for (Resource resource : new PathMatchingResourcePatternResolver().getResources(LOCATION)) {
+            String name = StrUtil.removeSuffix(resource.getFilename(), SUFFIX);
+            try (InputStream in = resource.getInputStream()) {
+                scripts.put(name, new ScriptEntry(name, new Script(IoUtil.readBytes(in), 1, "classpath")));
+            }
+        }
+        // 2. 预加载到Redis，Redis不可用时在首次执行时加载
+        try {
+            preload();
+        } catch (DataAccessException e) {
+            log.warn("预加载Lua脚本失败，将在首次执行时加载", e);
+        }
+        log.info("已注册Lua脚本：{}", scripts.keySet());
+    }
+
+    /**
+     * 通过EVALSHA执行返回整数的脚本
+     *
+     * @param name 脚本名称，即 resources/lua 下的文件名去掉.lua
+     * @param keys 脚本的KEYS
+     * @param args 脚本的ARGV
+     * @return 脚本的返回值
+     */
+    public Long execute(String name, List<String> keys, String... args) {
+        ScriptEntry entry = scripts.get(name);
+        if (null == entry) {
+            throw new IllegalArgumentException("Lua脚本不存在：" + name);
+        }
+        byte[][] keysAndArgs = new byte[keys.size() + args.length][];
+        int i = 0;
+        for (String key : keys) {
+            keysAndArgs[i++] = key.getBytes(StandardCharsets.UTF_8);
+        }
+        for (String arg : args) {
+            keysAndArgs[i++] = arg.getBytes(StandardCharsets.UTF_8);
+        }
+        Script script = entry.script;
+        entry.calls.increment();
+        try {
+            return evalSha(script, keys.size(), keysAndArgs);
+        } catch (DataAccessException e) {
+            if (!isNoScript(e)) {
+                throw e;
+            }
+            // Redis中没有该脚本，重新加载后重试
+            entry.noScripts.increment();
+            load(script);
+            return evalSha(script, keys.size(), keysAndArgs);
+        }
+    }
+
+    /**
+     * 检查全部脚本是否仍在Redis中，不在的重新加载，用于主从切换、Redis重启后尽快恢复
+     */
+    @Scheduled(fixedDelayString = "${hmdp.redis.scripts.check-interval:30000}")
+    public void preload() {
+        List<Script> list = new ArrayList<>();
+        for (ScriptEntry entry : scripts.values()) {
+            list.add(entry.script);
+        }
+        if (list.isEmpty()) {
+            return;
+        }
+        List<Boolean> exists = stringRedisTemplate.execute((RedisCallback<List<Boolean>>) connection ->
+                connection.scriptingCommands().scriptExists(list.stream().map(script -> script.sha).toArray(String[]::new)));
+        for (int i = 0; i < list.size(); i++) {
+            if (null == exists || !Boolean.TRUE.equals(exists.get(i))) {
+                load(list.get(i));
+            }
+        }
+    }
+
+    /**
+     * 热更新脚本：优先读取外部目录中的同名文件，否则重新读取classpath中的脚本；内容变化时版本号加一
+     *
+     * @param name 脚本名称
+     * @return 更新后的脚本信息
+     */
+    public Map<String, Object> reload(String name) throws IOException {
+        ScriptEntry entry = scripts.get(name);
+        if (null == entry) {
+            throw new IllegalArgumentException("Lua脚本不存在：" + name);
+        }
+        // 1. 读取脚本
+        byte[] body;
+        String source;
+        File file = StrUtil.isBlank(reloadDir) ? null : FileUtil.file(reloadDir, name + SUFFIX);
+        if (null != file && file.isFile()) {
+            body = FileUtil.readBytes(file);
+            source = file.getAbsolutePath();
+        } else {
+            Resource[] resources = new PathMatchingResourcePatternResolver().getResources("classpath*:lua/" + name + SUFFIX);
+            try (InputStream in = resources[0].getInputStream()) {
+                body = IoUtil.readBytes(in);
+            }
+            source = "classpath";
+        }
+        // 2. 内容变化时先加载到Redis，再切换到新版本
+        synchronized (entry) {
+            Script current = entry.script;
+            Script script = new Script(body, current.version + 1, source);
+            if (!script.sha.equals(current.sha)) {
+                load(script);
+                entry.script = script;
+                entry.reloads.increment();
+                log.info("Lua脚本{}更新到版本{}，SHA：{}", name, script.version, script.sha);
+            }
+        }
+        return entry.stats();
+    }
+
+    /**
+     * 查询各脚本的SHA、版本及执行次数
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        scripts.keySet().stream().sorted().forEach(name -> map.put(name, scripts.get(name).stats()));
+        return map;
+    }
+
+    private Long evalSha(Script script, int numKeys, byte[][] keysAndArgs) {
+        return stringRedisTemplate.execute((RedisCallback<Long>) connection ->
+                connection.scriptingCommands().evalSha(script.sha, ReturnType.INTEGER, numKeys, keysAndArgs));
+    }
+
+    private void load(Script script) {
+        stringRedisTemplate.execute((RedisCallback<String>) connection -> connection.scriptingCommands().scriptLoad(script.body));
+    }
+
+    private static boolean isNoScript(Throwable e) {
+        for (Throwable t = e; null != t; t = t.getCause()) {
+            if (null != t.getMessage() && t.getMessage().contains("NOSCRIPT")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 脚本的某个版本，创建后不再修改
+     */
+    private static class Script {
+        private final byte[] body;
+        private final String sha;
+        private final int version;
+        private final String source;
+        private final long loadedAt = System.currentTimeMillis();
+
+        Script(byte[] body, int version, String source) {
+            this.body = body;
+            this.sha = SecureUtil.sha1().digestHex(body);
+            this.version = version;
+            this.source = source;
+        }
+    }
+
+    /**
+     * 脚本的当前版本及执行次数
+     */
+    private static class ScriptEntry {
+        private final String name;
+        private volatile Script script;
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder noScripts = new LongAdder();
+        private final LongAdder reloads = new LongAdder();
+
+        ScriptEntry(String name, Script script) {
+            this.name = name;
+            this.script = script;
+        }
+
+        Map<String, Object> stats() {
+            Script current = script;
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("name", name);
+            map.put("sha", current.sha);
+            map.put("version", current.version);
+            map.put("source", current.source);
+            map.put("loadedAt", current.loadedAt);
+            map.put("calls", calls.sum());
+            map.put("noScripts", noScripts.sum());
+            map.put("reloads", reloads.sum());
+            return map;
+        }
+    }
+}
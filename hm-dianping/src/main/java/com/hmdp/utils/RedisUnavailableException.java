@@ -0,0 +1,17 @@
+package com.hmdp.utils;
+
+/**
+ * Redis不可用：熔断器处于打开状态，或者访问Redis失败
+ *
+ * @author zhinushannan
+ */
+public class RedisUnavailableException extends RuntimeException {
+
+    public RedisUnavailableException(String message) {
+        super(message);
+    }
+
+    public RedisUnavailableException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,64 @@
+package com.hmdp.utils;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_BITS_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_KEY;
+
+/**
+ * 秒杀券已下单用户的key，用于一人一单的判断
+ * <p>
+ * 默认使用集合保存用户id；用户id是连续自增的，也可以使用位图，以用户id为偏移量，每个用户1位。
+ * 位图按 {@link #SEGMENT_BITS} 位分段保存，SETBIT只会分配用户id所在的段，避免大id一次分配整个位图。
+ * 按每个集合成员约50~70字节估算（未实测），500万用户的集合约需300MB；位图按每个用户1位计算约为625KB
+ *
+ * @author zhinushannan
+ */
+public class SeckillBuyers {
+
+    /**
+     * 每段位图的位数，2^23位即1MB
+     */
+    public static final long SEGMENT_BITS = 1L << 23;
+
+    /**
+     * 位图模式的标记值
+     */
+    public static final String BITMAP = "bitmap";
+
+    private SeckillBuyers() {
+    }
+
+    /**
+     * 已下单用户的集合
+     *
+     * @param voucherId 优惠券id
+     * @param shards    库存分片数，分片时使用用户所属分片的集合
+     * @param userId    用户id
+     */
+    public static String setKey(Long voucherId, int shards, Long userId) {
+        return shards > 1
+                ? SeckillStockShards.orderKey(voucherId, SeckillStockShards.shardOf(userId, shards))
+                : SECKILL_ORDER_KEY + voucherId;
+    }
+
+    /**
+     * 用户所在的位图段，分片时与用户所属分片使用相同的hash tag
+     *
+     * @param voucherId 优惠券id
+     * @param shards    库存分片数
+     * @param userId    用户id
+     */
+    public static String bitKey(Long voucherId, int shards, Long userId) {
+        long segment = userId / SEGMENT_BITS;
+        return shards > 1
+                ? SECKILL_ORDER_BITS_KEY + "{" + voucherId + ":" + SeckillStockShards.shardOf(userId, shards) + "}:" + segment
+                : SECKILL_ORDER_BITS_KEY + voucherId + ":" + segment;
+    }
+
+    /**
+     * 用户在位图段中的偏移量
+     */
+    public static long bitOffset(Long userId) {
+        return userId % SEGMENT_BITS;
+    }
+
+}
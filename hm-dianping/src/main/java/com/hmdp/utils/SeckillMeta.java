@@ -0,0 +1,79 @@
+package com.hmdp.utils;
+
+import org.springframework.data.redis.connection.StringRedisConnection;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_META_KEY;
+
+/**
+ * 秒杀券的元数据：开始时间、结束时间（毫秒时间戳）和状态，保存在Redis的hash中，由秒杀脚本按Redis的时间校验
+ * <p>
+ * 分片的秒杀券在每个分片的hash tag下各保存一份，分片脚本可以在同一个slot中读取
+ *
+ * @author zhinushannan
+ */
+public class SeckillMeta {
+
+    public static final String BEGIN = "begin";
+    public static final String END = "end";
+    public static final String STATUS = "status";
+
+    /**
+     * 上架状态，与tb_voucher.status一致
+     */
+    public static final int ON_SALE = 1;
+
+    private SeckillMeta() {
+    }
+
+    /**
+     * 元数据key，未分片的秒杀券及本地缓存使用
+     */
+    public static String key(Long voucherId) {
+        return SECKILL_META_KEY + voucherId;
+    }
+
+    /**
+     * 分片的元数据key，与分片库存使用相同的hash tag
+     */
+    public static String key(Long voucherId, int shard) {
+        return SECKILL_META_KEY + "{" + voucherId + ":" + shard + "}";
+    }
+
+    /**
+     * 秒杀脚本使用的元数据key
+     */
+    public static String key(Long voucherId, int shards, int shard) {
+        return shards > 1 ? key(voucherId, shard) : key(voucherId);
+    }
+
+    /**
+     * 生成元数据，状态为空时视为上架
+     */
+    public static Map<String, String> of(LocalDateTime beginTime, LocalDateTime endTime, Integer status) {
+        Map<String, String> meta = new HashMap<>(4);
+        meta.put(BEGIN, String.valueOf(toMillis(beginTime)));
+        meta.put(END, String.valueOf(toMillis(endTime)));
+        meta.put(STATUS, String.valueOf(null == status ? ON_SALE : status));
+        return meta;
+    }
+
+    /**
+     * 在pipeline中写入元数据，分片时每个分片再写入一份
+     */
+    public static void write(StringRedisConnection connection, Long voucherId, int shards, Map<String, String> meta) {
+        connection.hMSet(key(voucherId), meta);
+        for (int i = 0; shards > 1 && i < shards; i++) {
+            connection.hMSet(key(voucherId, i), meta);
+        }
+    }
+
+    private static long toMillis(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+}
@@ -0,0 +1,51 @@
+package com.hmdp.utils;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
+
+/**
+ * 秒杀库存分片的key及库存分配
+ * <p>
+ * 分片的库存和已下单用户使用相同的hash tag，位于集群的同一个slot，可以在一个脚本中操作；
+ * 用户按id固定属于一个分片，已下单用户只记录在所属分片中，一人一单的判断是精确的
+ *
+ * @author zhinushannan
+ */
+public class SeckillStockShards {
+
+    private SeckillStockShards() {
+    }
+
+    /**
+     * 分片的库存key
+     */
+    public static String stockKey(Long voucherId, int shard) {
+        return SECKILL_STOCK_KEY + "{" + voucherId + ":" + shard + "}";
+    }
+
+    /**
+     * 分片的已下单用户key
+     */
+    public static String orderKey(Long voucherId, int shard) {
+        return SECKILL_ORDER_KEY + "{" + voucherId + ":" + shard + "}";
+    }
+
+    /**
+     * 用户所属的分片
+     */
+    public static int shardOf(Long userId, int shards) {
+        return (int) Math.floorMod(userId, (long) shards);
+    }
+
+    /**
+     * 分配给某个分片的库存，余数分给前面的分片
+     *
+     * @param stock  总库存
+     * @param shards 分片数
+     * @param shard  分片
+     */
+    public static int stockOf(int stock, int shards, int shard) {
+        return stock / shards + (shard < stock % shards ? 1 : 0);
+    }
+
+}
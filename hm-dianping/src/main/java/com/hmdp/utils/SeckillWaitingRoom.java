@@ -0,0 +1,110 @@
+package com.hmdp.utils;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ADMITTED_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_QUEUE_KEY;
+
+/**
+ * 秒杀等候室
+ * <p>
+ * 开售瞬间的请求先按到达顺序进入Redis中的队列，未使用的令牌数最多为剩余库存的 ratio 倍，
+ * 只有持有令牌的用户才会执行秒杀脚本，其余用户得到排队位置后重试；
+ * 令牌在 tokenTtl 毫秒内未使用则过期，名额重新分配给队列中的用户
+ *
+ * @author zhinushannan
+ */
+@Component
+public class SeckillWaitingRoom {
+
+    /**
+     * 已使用令牌，可以秒杀
+     */
+    public static final int ADMITTED = 0;
+
+    /**
+     * 已售罄
+     */
+    public static final int SOLD_OUT = -1;
+
+    private static final String ADMISSION_SCRIPT = "admission";
+
+    /**
+     * 是否启用等候室
+     */
+    @Value("${hmdp.seckill.waiting-room.enabled:false}")
+    private boolean enabled;
+
+    /**
+     * 未使用的令牌数与剩余库存的比例
+     */
+    @Value("${hmdp.seckill.waiting-room.ratio:2.0}")
+    private double ratio;
+
+    /**
+     * 令牌的有效期(ms)
+     */
+    @Value("${hmdp.seckill.waiting-room.token-ttl:30000}")
+    private long tokenTtl;
+
+    /**
+     * 队列的保留时间(ms)
+     */
+    @Value("${hmdp.seckill.waiting-room.keep:3600000}")
+    private long keep;
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Autowired
+    private RedisScriptRegistry scriptRegistry;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 进入等候室：持有令牌时使用令牌，否则排队并按剩余库存放行
+     *
+     * @param voucherId 优惠券id
+     * @param userId    用户id
+     * @param stockKeys 秒杀券的库存key，分片时为全部分片
+     * @return {@link #ADMITTED} 可以秒杀，{@link #SOLD_OUT} 已售罄，大于0为排队的位置
+     */
+    public int enter(Long voucherId, Long userId, List<String> stockKeys) {
+        List<String> keys = new ArrayList<>(stockKeys.size() + 2);
+        keys.add(SECKILL_QUEUE_KEY + voucherId);
+        keys.add(SECKILL_ADMITTED_KEY + voucherId);
+        keys.addAll(stockKeys);
+        Long result = scriptRegistry.execute(ADMISSION_SCRIPT, keys,
+                userId.toString(), String.valueOf(ratio), String.valueOf(tokenTtl), String.valueOf(keep));
+        return null == result ? SOLD_OUT : result.intValue();
+    }
+
+    /**
+     * 查询用户在等候室中的状态，不排队也不使用令牌
+     *
+     * @param voucherId 优惠券id
+     * @param userId    用户id
+     * @return admitted 是否持有未过期的令牌，position 排队的位置（不在队列中时为空），waiting 排队的人数
+     */
+    public Map<String, Object> status(Long voucherId, Long userId) {
+        Double expireAt = stringRedisTemplate.opsForZSet().score(SECKILL_ADMITTED_KEY + voucherId, userId.toString());
+        Long rank = stringRedisTemplate.opsForZSet().rank(SECKILL_QUEUE_KEY + voucherId, userId.toString());
+        Long waiting = stringRedisTemplate.opsForZSet().zCard(SECKILL_QUEUE_KEY + voucherId);
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("admitted", null != expireAt && expireAt >= System.currentTimeMillis());
+        map.put("position", null == rank ? null : rank + 1);
+        map.put("waiting", null == waiting ? 0 : waiting);
+        return map;
+    }
+
+}
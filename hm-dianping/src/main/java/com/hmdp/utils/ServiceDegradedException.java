@@ -0,0 +1,13 @@
+package com.hmdp.utils;
+
+/**
+ * 降级期间超出数据库并发限制，快速失败
+ *
+ * @author zhinushannan
+ */
+public class ServiceDegradedException extends RuntimeException {
+
+    public ServiceDegradedException(String message) {
+        super(message);
+    }
+}
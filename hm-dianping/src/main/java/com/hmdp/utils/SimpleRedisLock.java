@@ -1,9 +1,7 @@
 package com.hmdp.utils;
 
 import cn.hutool.core.lang.UUID;
-import org.springframework.core.io.ClassPathResource;
 import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.data.redis.core.script.DefaultRedisScript;
 
 import java.util.Collections;
 import java.util.concurrent.TimeUnit;
@@ -21,6 +19,10 @@ public class SimpleRedisLock implements ILock {
      * string redis template
      */
     private final StringRedisTemplate stringRedisTemplate;
+    /**
+     * Lua脚本注册表
+     */
+    private final RedisScriptRegistry scriptRegistry;
 
     /**
      * 锁的前缀
@@ -32,19 +34,14 @@ public class SimpleRedisLock implements ILock {
     private static final String ID_PREFIX = UUID.randomUUID().toString(true) + "-";
 
     /**
-     * Redis Lua 脚本
+     * 释放锁的 Lua 脚本
      */
-    private static final DefaultRedisScript<Long> UNLOCK_SCRIPT;
-
-    static {
-        UNLOCK_SCRIPT = new DefaultRedisScript<>();
-        UNLOCK_SCRIPT.setLocation(new ClassPathResource("lua/unlock.lua"));
-        UNLOCK_SCRIPT.setResultType(Long.class);
-    }
+    private static final String UNLOCK_SCRIPT = "unlock";
 
-    public SimpleRedisLock(String name, StringRedisTemplate stringRedisTemplate) {
+    public SimpleRedisLock(String name, StringRedisTemplate stringRedisTemplate, RedisScriptRegistry scriptRegistry) {
         this.name = name;
         this.stringRedisTemplate = stringRedisTemplate;
+        this.scriptRegistry = scriptRegistry;
     }
 
     @Override
@@ -57,7 +54,7 @@ public class SimpleRedisLock implements ILock {
 
     @Override
     public void unlock() {
-        stringRedisTemplate.execute(
+        scriptRegistry.execute(
                 UNLOCK_SCRIPT,
                 Collections.singletonList(KEY_PREFIX + this.name),
                 ID_PREFIX + Thread.currentThread().getId()
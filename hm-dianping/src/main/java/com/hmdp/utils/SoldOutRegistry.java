@@ -0,0 +1,127 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_SOLD_OUT_CHANNEL;
+
+/**
+ * 秒杀券售罄标记，售罄后的秒杀请求在本节点直接拒绝，不再访问Redis
+ * <p>
+ * 某个节点发现售罄或补充库存时通过Redis发布订阅通知所有节点；
+ * 标记最多保留 ttl 毫秒，即使补充库存的通知丢失，各节点也会在 ttl 后重新通过Redis判断库存
+ *
+ * @author zhinushannan
+ */
+@Slf4j
+@Component
+public class SoldOutRegistry implements MessageListener {
+
+    /**
+     * 售罄消息的前缀，补充库存的消息前缀为 {@link #RESTOCKED}
+     */
+    private static final String SOLD_OUT = "1:";
+
+    private static final String RESTOCKED = "0:";
+
+    /**
+     * 是否启用售罄标记
+     */
+    @Value("${hmdp.seckill.sold-out.enabled:true}")
+    private boolean enabled;
+
+    /**
+     * 售罄标记的存活时间(ms)
+     */
+    @Value("${hmdp.seckill.sold-out.ttl:60000}")
+    private long ttl;
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Autowired
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    /**
+     * 优惠券id -> 标记为售罄的时间
+     */
+    private final Map<Long, Long> soldOut = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    private void init() {
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(SECKILL_SOLD_OUT_CHANNEL));
+    }
+
+    /**
+     * 优惠券是否已售罄
+     *
+     * @param voucherId 优惠券id
+     */
+    public boolean isSoldOut(Long voucherId) {
+        if (!enabled) {
+            return false;
+        }
+        Long markedAt = soldOut.get(voucherId);
+        if (null == markedAt) {
+            return false;
+        }
+        if (System.currentTimeMillis() - markedAt > ttl) {
+            soldOut.remove(voucherId, markedAt);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 标记优惠券已售罄，并通知其它节点
+     *
+     * @param voucherId 优惠券id
+     */
+    public void markSoldOut(Long voucherId) {
+        if (!enabled) {
+            return;
+        }
+        // 本节点已标记的不再重复通知
+        if (null == soldOut.putIfAbsent(voucherId, System.currentTimeMillis())) {
+            stringRedisTemplate.convertAndSend(SECKILL_SOLD_OUT_CHANNEL, SOLD_OUT + voucherId);
+        }
+    }
+
+    /**
+     * 补充库存后清除售罄标记，并通知其它节点
+     *
+     * @param voucherId 优惠券id
+     */
+    public void restocked(Long voucherId) {
+        soldOut.remove(voucherId);
+        stringRedisTemplate.convertAndSend(SECKILL_SOLD_OUT_CHANNEL, RESTOCKED + voucherId);
+    }
+
+    /**
+     * 收到其它节点（包括本节点）的售罄或补充库存通知
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        Long voucherId = Long.valueOf(body.substring(SOLD_OUT.length()));
+        if (body.startsWith(SOLD_OUT)) {
+            soldOut.putIfAbsent(voucherId, System.currentTimeMillis());
+        } else {
+            soldOut.remove(voucherId);
+        }
+        log.debug("秒杀券{}：{}", body.startsWith(SOLD_OUT) ? "售罄" : "补充库存", voucherId);
+    }
+
+}
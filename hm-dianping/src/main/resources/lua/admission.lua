@@ -0,0 +1,59 @@
+-- 秒杀等候室：按剩余库存放行排队的用户，只有持有令牌的用户才能执行秒杀脚本
+-- 读取TIME后仍需写入，按命令而不是按脚本复制（Redis 5起为默认行为）
+redis.replicate_commands()
+
+-- 1. 参数列表
+-- 1.1 排队用户的有序集合Key，分数为进入队列的时间
+local queueKey = KEYS[1]
+-- 1.2 持有令牌用户的有序集合Key，分数为令牌的过期时间
+local admittedKey = KEYS[2]
+-- 1.3 KEYS[3]起为库存Key，分片的秒杀券传入全部分片
+-- 1.4 用户ID
+local userId = ARGV[1]
+-- 1.5 未使用的令牌数与剩余库存的比例
+local ratio = tonumber(ARGV[2])
+-- 1.6 令牌的有效期(ms)
+local tokenTtl = tonumber(ARGV[3])
+-- 1.7 队列的保留时间(ms)，每次进入时续期
+local keep = tonumber(ARGV[4])
+
+local time = redis.call('time')
+local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+
+-- 2. 持有未过期的令牌，使用令牌，返回0
+local expireAt = redis.call('zscore', admittedKey, userId)
+if (expireAt and tonumber(expireAt) >= now) then
+    redis.call('zrem', admittedKey, userId)
+    return 0
+end
+
+-- 3. 计算剩余库存，已售罄返回-1
+local stock = 0
+for i = 3, #KEYS do
+    stock = stock + (tonumber(redis.call('get', KEYS[i])) or 0)
+end
+if (stock <= 0) then
+    return -1
+end
+
+-- 4. 排队，已在队列中的保持原来的位置
+redis.call('zadd', queueKey, 'NX', now, userId)
+
+-- 5. 清理过期的令牌，按剩余库存从队首放行
+redis.call('zremrangebyscore', admittedKey, '-inf', '(' .. now)
+local free = math.ceil(stock * ratio) - redis.call('zcard', admittedKey)
+if (free > 0) then
+    local heads = redis.call('zpopmin', queueKey, free)
+    for i = 1, #heads, 2 do
+        redis.call('zadd', admittedKey, now + tokenTtl, heads[i])
+    end
+end
+redis.call('pexpire', queueKey, keep)
+redis.call('pexpire', admittedKey, keep)
+
+-- 6. 本次被放行的直接使用令牌，否则返回排队的位置
+if (redis.call('zscore', admittedKey, userId)) then
+    redis.call('zrem', admittedKey, userId)
+    return 0
+end
+return redis.call('zrank', queueKey, userId) + 1
@@ -0,0 +1,36 @@
+-- 令牌桶限流，按Redis的时间补充令牌，返回0表示通过，否则返回需要等待的毫秒数
+-- 读取TIME后仍需写入，按命令而不是按脚本复制（Redis 5起为默认行为）
+redis.replicate_commands()
+
+-- 1. 参数列表
+-- 1.1 令牌桶Key，hash中保存剩余令牌数和上次补充的时间
+local key = KEYS[1]
+-- 1.2 每秒补充的令牌数
+local rate = tonumber(ARGV[1])
+-- 1.3 令牌桶的容量
+local capacity = tonumber(ARGV[2])
+-- 1.4 本次需要的令牌数
+local requested = tonumber(ARGV[3])
+
+local time = redis.call('time')
+local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+
+-- 2. 按距离上次补充的时间补充令牌，新的令牌桶是满的
+local bucket = redis.call('hmget', key, 'tokens', 'ts')
+local tokens = tonumber(bucket[1]) or capacity
+local ts = tonumber(bucket[2]) or now
+tokens = math.min(capacity, tokens + math.max(0, now - ts) * rate / 1000)
+
+-- 3. 令牌足够时扣减，否则计算需要等待的时间
+local wait = 0
+if (tokens >= requested) then
+    tokens = tokens - requested
+else
+    wait = math.ceil((requested - tokens) * 1000 / rate)
+end
+
+-- 4. 保存令牌桶，补满所需的时间后自动删除
+redis.call('hset', key, 'tokens', tostring(tokens), 'ts', tostring(now))
+redis.call('pexpire', key, math.ceil(capacity * 1000 / rate) + 1000)
+
+return wait
@@ -1,3 +1,6 @@
+-- 读取TIME后仍需写入，按命令而不是按脚本复制（Redis 5起为默认行为）
+redis.replicate_commands()
+
 -- 1. 参数列表
 -- 1.1 优惠券ID
 local voucherId = ARGV[1]
@@ -5,21 +8,52 @@ local voucherId = ARGV[1]
 local userId = ARGV[2]
 -- 1.3 订单ID
 local orderId = ARGV[3]
+-- 1.4 订单消息队列，按分区传入
+local queueKey = KEYS[1]
+-- 1.5 位图模式时用户在位图段中的偏移量
+local bitOffset = ARGV[4]
 
 -- 2. 数据Key
+-- 脚本同时访问秒杀券的key和分区的消息队列，这些key不在同一个slot，只能在单机或哨兵部署的Redis上执行
 -- 2.1 库存Key
-local stockKey = 'seckill:stock:' .. voucherId -- lua脚本中的字符串拼接方式
--- 2.2 订单Key
-local orderKey = 'seckill:order:' .. voucherId
+local stockKey = KEYS[2]
+-- 2.2 元数据Key
+local metaKey = KEYS[3]
+-- 2.3 已下单用户集合Key
+local orderKey = KEYS[4]
+-- 2.4 位图模式时用户所在的位图段Key
+local bitKey = KEYS[5]
 
 -- 3. 脚本业务
--- 3.1 判断库存是否充足 get stockKey
-if (tonumber(redis.call('get', stockKey)) <= 0) then
+-- 3.0 校验秒杀时间和状态，时间以Redis服务器为准；没有元数据的旧秒杀券不校验
+local meta = redis.call('hmget', metaKey, 'begin', 'end', 'status')
+if (meta[1]) then
+    if (meta[3] ~= '1') then
+        -- 已下架，返回6
+        return 6
+    end
+    local time = redis.call('time')
+    local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+    if (now < tonumber(meta[1])) then
+        -- 尚未开始，返回4
+        return 4
+    end
+    if (now > tonumber(meta[2])) then
+        -- 已经结束，返回5
+        return 5
+    end
+end
+
+-- 3.1 判断库存是否充足 get stockKey，库存Key不存在（如未预热）时按售罄处理
+if ((tonumber(redis.call('get', stockKey)) or 0) <= 0) then
     -- 3.2 库存不足，返回1
     return 1
 end
 
--- 3.2 判断用户是否下单
+-- 3.2 判断用户是否下单，位图模式同时检查迁移前的集合
+if (bitKey and tonumber(redis.call('getbit', bitKey, bitOffset)) == 1) then
+    return 2
+end
 if (tonumber(redis.call('sismember', orderKey, userId)) == 1) then
     -- 3.3 存在说明是重复下单
     return 2
@@ -29,9 +63,13 @@ end
 redis.call('incrby', stockKey, -1)
 
 -- 3.5 下单（保存用户）
-redis.call('sadd', orderKey, userId)
+if (bitKey) then
+    redis.call('setbit', bitKey, bitOffset, 1)
+else
+    redis.call('sadd', orderKey, userId)
+end
 
 -- 3.6 发送消息到消息队列中
-redis.call('XADD', 'stream.orders', '*', 'userId', userId, 'voucherId', voucherId, 'id', orderId)
+redis.call('XADD', queueKey, '*', 'userId', userId, 'voucherId', voucherId, 'id', orderId)
 
 return 0
@@ -0,0 +1,63 @@
+-- 使用节点本地租借的库存下单，只在Redis中判断一人一单并发送订单消息
+-- 每次下单仍执行一次本脚本，租借只是不再访问热点库存key
+-- 读取TIME后仍需写入，按命令而不是按脚本复制（Redis 5起为默认行为）
+redis.replicate_commands()
+
+-- 1. 参数列表
+-- 脚本同时访问秒杀券的key和分区的消息队列，这些key不在同一个slot，只能在单机或哨兵部署的Redis上执行
+-- 1.1 订单消息队列
+local queueKey = KEYS[1]
+-- 1.2 元数据Key
+local metaKey = KEYS[2]
+-- 1.3 已下单用户Key
+local orderKey = KEYS[3]
+-- 1.4 位图模式时用户所在的位图段Key
+local bitKey = KEYS[4]
+-- 1.5 用户ID
+local userId = ARGV[1]
+-- 1.6 优惠券ID
+local voucherId = ARGV[2]
+-- 1.7 订单ID
+local orderId = ARGV[3]
+-- 1.8 位图模式时用户在位图段中的偏移量
+local bitOffset = ARGV[4]
+
+-- 2. 校验秒杀时间和状态，时间以Redis服务器为准；没有元数据的旧秒杀券不校验
+local meta = redis.call('hmget', metaKey, 'begin', 'end', 'status')
+if (meta[1]) then
+    if (meta[3] ~= '1') then
+        -- 2.1 已下架，返回6
+        return 6
+    end
+    local time = redis.call('time')
+    local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+    if (now < tonumber(meta[1])) then
+        -- 2.2 尚未开始，返回4
+        return 4
+    end
+    if (now > tonumber(meta[2])) then
+        -- 2.3 已经结束，返回5
+        return 5
+    end
+end
+
+-- 3. 判断用户是否下单，位图模式同时检查迁移前的集合
+if (bitKey and tonumber(redis.call('getbit', bitKey, bitOffset)) == 1) then
+    return 2
+end
+if (tonumber(redis.call('sismember', orderKey, userId)) == 1) then
+    -- 2.1 存在说明是重复下单
+    return 2
+end
+
+-- 4. 下单（保存用户）
+if (bitKey) then
+    redis.call('setbit', bitKey, bitOffset, 1)
+else
+    redis.call('sadd', orderKey, userId)
+end
+
+-- 5. 发送消息到消息队列中
+redis.call('XADD', queueKey, '*', 'userId', userId, 'voucherId', voucherId, 'id', orderId)
+
+return 0
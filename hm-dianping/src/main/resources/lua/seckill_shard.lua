@@ -0,0 +1,61 @@
+-- 在用户所属的库存分片上登记用户并扣减库存
+-- 读取TIME后仍需写入，按命令而不是按脚本复制（Redis 5起为默认行为）
+redis.replicate_commands()
+
+-- 1. 参数列表
+-- 1.1 分片库存Key
+local stockKey = KEYS[1]
+-- 1.2 分片元数据Key，与库存Key使用相同的hash tag
+local metaKey = KEYS[2]
+-- 1.3 分片已下单用户Key，同样使用相同的hash tag
+local orderKey = KEYS[3]
+-- 1.4 位图模式时用户所在的位图段Key，同样使用相同的hash tag
+local bitKey = KEYS[4]
+-- 1.5 用户ID
+local userId = ARGV[1]
+-- 1.6 位图模式时用户在位图段中的偏移量
+local bitOffset = ARGV[2]
+
+-- 2. 校验秒杀时间和状态，时间以Redis服务器为准；没有元数据的旧秒杀券不校验
+local meta = redis.call('hmget', metaKey, 'begin', 'end', 'status')
+if (meta[1]) then
+    if (meta[3] ~= '1') then
+        -- 2.1 已下架，返回6
+        return 6
+    end
+    local time = redis.call('time')
+    local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+    if (now < tonumber(meta[1])) then
+        -- 2.2 尚未开始，返回4
+        return 4
+    end
+    if (now > tonumber(meta[2])) then
+        -- 2.3 已经结束，返回5
+        return 5
+    end
+end
+
+-- 3. 判断用户是否下单，位图模式同时检查迁移前的集合
+if (bitKey and tonumber(redis.call('getbit', bitKey, bitOffset)) == 1) then
+    return 2
+end
+if (tonumber(redis.call('sismember', orderKey, userId)) == 1) then
+    -- 2.1 存在说明是重复下单
+    return 2
+end
+
+-- 4. 先登记用户，从其它分片扣减库存期间同一用户的请求也会被判断为重复下单
+if (bitKey) then
+    redis.call('setbit', bitKey, bitOffset, 1)
+else
+    redis.call('sadd', orderKey, userId)
+end
+
+-- 5. 本分片库存充足时直接扣减
+if ((tonumber(redis.call('get', stockKey)) or 0) > 0) then
+    redis.call('incrby', stockKey, -1)
+    return 0
+end
+
+-- 6. 本分片库存不足，需要从其它分片扣减
+return 3
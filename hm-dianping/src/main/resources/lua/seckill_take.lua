@@ -0,0 +1,13 @@
+-- 从其它库存分片扣减一个库存
+-- 1. 参数列表
+-- 1.1 分片库存Key
+local stockKey = KEYS[1]
+
+-- 2. 库存充足时扣减
+if ((tonumber(redis.call('get', stockKey)) or 0) > 0) then
+    redis.call('incrby', stockKey, -1)
+    return 0
+end
+
+-- 3. 库存不足
+return 1
@@ -0,0 +1,17 @@
+-- 从秒杀库存中租借一批库存到节点本地
+-- 1. 参数列表
+-- 1.1 库存Key
+local stockKey = KEYS[1]
+-- 1.2 希望租借的数量
+local chunk = tonumber(ARGV[1])
+
+-- 2. 库存不足返回0
+local stock = tonumber(redis.call('get', stockKey)) or 0
+if (stock <= 0) then
+    return 0
+end
+
+-- 3. 租借剩余库存与希望数量中较小的部分
+local leased = math.min(stock, chunk)
+redis.call('incrby', stockKey, -leased)
+return leased
@@ -0,0 +1,134 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Blog;
+import com.hmdp.entity.Shop;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JSON与二进制缓存编解码器的对比，运行main方法输出各自的编码长度及吞吐量
+ *
+ * @author zhinushannan
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CacheCodecBenchmark {
+
+    private final CacheCodec jsonCodec = new JsonCacheCodec();
+
+    private final CacheCodec binaryCodec = new BinaryCacheCodec();
+
+    private Shop shop;
+
+    private Blog blog;
+
+    private byte[] shopJson;
+
+    private byte[] shopBinary;
+
+    private byte[] blogJson;
+
+    private byte[] blogBinary;
+
+    @Setup
+    public void setup() {
+        shop = new Shop()
+                .setId(1L)
+                .setName("103茶餐厅")
+                .setTypeId(1L)
+                .setImages("https://qcloud.dpfile.com/pc/jiclIsCKmOI2arxKN1Uf0Hx3PucIJH8q0QSz-Z8llzcN56-_QiKuOvyio1OOxsRtFoXqu0G3iT2T27qat3WhLVEuLYk00OmSS1IdNpm8K8sG4JN9RIm2mTKcbLtc2o2vfCF2ubeXzk49OsGrXt_KYDCngOyCwZK-s3fqawWswzk.jpg")
+                .setArea("大关")
+                .setAddress("金华路锦昌文华苑29号")
+                .setX(120.149192)
+                .setY(30.316078)
+                .setAvgPrice(80L)
+                .setSold(4215)
+                .setComments(3035)
+                .setScore(37)
+                .setOpenHours("10:00-22:00")
+                .setCreateTime(LocalDateTime.now())
+                .setUpdateTime(LocalDateTime.now());
+        blog = new Blog()
+                .setId(4L)
+                .setShopId(4L)
+                .setUserId(2L)
+                .setTitle("无尽浪漫的夜晚丨在万花丛中摇晃着红酒杯🍷品战斧牛排🥩")
+                .setImages("/imgs/blogs/7/14/4771fefb-1a87-4252-816c-9f7ec41ffa4a.jpg,/imgs/blogs/4/10/2f07e3c9-ddce-482d-9ea7-c21450f8d7cd.jpg")
+                .setContent("生活就是一半烟火·一半诗意<br>手执烟火谋生活·心怀诗意以谋爱·<br>当然<br>男朋友给不了的浪漫要学会自己给🍒<br>无法重来的一生·尽量快乐.")
+                .setLiked(1)
+                .setComments(104)
+                .setCreateTime(LocalDateTime.now())
+                .setUpdateTime(LocalDateTime.now());
+        shopJson = jsonCodec.encode(shop);
+        shopBinary = binaryCodec.encode(shop);
+        blogJson = jsonCodec.encode(blog);
+        blogBinary = binaryCodec.encode(blog);
+    }
+
+    @Benchmark
+    public byte[] encodeShopJson() {
+        return jsonCodec.encode(shop);
+    }
+
+    @Benchmark
+    public byte[] encodeShopBinary() {
+        return binaryCodec.encode(shop);
+    }
+
+    @Benchmark
+    public Shop decodeShopJson() {
+        return jsonCodec.decode(shopJson, Shop.class);
+    }
+
+    @Benchmark
+    public Shop decodeShopBinary() {
+        return binaryCodec.decode(shopBinary, Shop.class);
+    }
+
+    @Benchmark
+    public byte[] encodeBlogJson() {
+        return jsonCodec.encode(blog);
+    }
+
+    @Benchmark
+    public byte[] encodeBlogBinary() {
+        return binaryCodec.encode(blog);
+    }
+
+    @Benchmark
+    public Blog decodeBlogJson() {
+        return jsonCodec.decode(blogJson, Blog.class);
+    }
+
+    @Benchmark
+    public Blog decodeBlogBinary() {
+        return binaryCodec.decode(blogBinary, Blog.class);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        CacheCodecBenchmark benchmark = new CacheCodecBenchmark();
+        benchmark.setup();
+        System.out.printf("Shop: json=%d bytes, binary=%d bytes%n", benchmark.shopJson.length, benchmark.shopBinary.length);
+        System.out.printf("Blog: json=%d bytes, binary=%d bytes%n", benchmark.blogJson.length, benchmark.blogBinary.length);
+        new Runner(new OptionsBuilder().include(CacheCodecBenchmark.class.getSimpleName()).build()).run();
+    }
+
+}